@@ -0,0 +1,92 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.search.EmissionDatabaseSearch;
+import de.cismet.cids.custom.sudplan.server.search.GeometryProjection;
+
+/**
+ * Measures the {@link EmissionDatabaseSearch} against a {@link StubMetaService} domain. The parameters compare the
+ * search of complete objects (<code>OBJECTS</code>) with the projections and the complete result with a page.
+ *
+ * @version  $Revision$, $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class EmissionDatabaseSearchBenchmark {
+
+    //~ Instance fields --------------------------------------------------------
+
+    /** the amount of emission databases. */
+    @Param({ "100", "1000" })
+    public int rows;
+
+    /** the latency of every call to the domain in milliseconds. */
+    @Param({ "2" })
+    public long latency;
+
+    /** the geometry projection or <code>OBJECTS</code> to search complete objects. */
+    @Param({ "OBJECTS", "NONE", "WKB", "BBOX" })
+    public String projection;
+
+    /** the page size, <code>0</code> for the complete result. */
+    @Param({ "0", "100" })
+    public int pageSize;
+
+    private Map<String, MetaService> servers;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates the domain.
+     */
+    @Setup
+    public void setUp() {
+        servers = Collections.singletonMap("SUDPLAN", StubMetaService.create("SUDPLAN", rows, latency)); // NOI18N
+    }
+
+    /**
+     * Performs a search.
+     *
+     * @return  the result
+     */
+    @Benchmark
+    public Collection search() {
+        final EmissionDatabaseSearch search = new EmissionDatabaseSearch();
+        search.setActiveLocalServers(servers);
+        search.setPageSize(pageSize);
+        if (!"OBJECTS".equals(projection)) { // NOI18N
+            search.setProjection(GeometryProjection.valueOf(projection));
+        }
+
+        return search.performServerSearch();
+    }
+}
@@ -0,0 +1,115 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local stand-in for the WebDAV holding the time series files. It answers every <code>DELETE</code> with the
+ * configured status after the configured latency and every other request with <code>405</code>. The server listens on
+ * an ephemeral port of the loopback interface, {@link #getBaseUrl()} is meant to be used as WebDAV host.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class LocalWebDav {
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AtomicLong deletions;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates and starts a new LocalWebDav object.
+     *
+     * @param   latency  the latency of every response in milliseconds
+     * @param   status   the status of the responses to deletions, e.g. <code>204</code> or <code>404</code>
+     * @param   threads  the amount of threads serving requests
+     *
+     * @throws  IOException  if the server cannot be started
+     */
+    LocalWebDav(final long latency, final int status, final int threads) throws IOException {
+        this.deletions = new AtomicLong(0);
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(null), 0), 0);
+        this.server.setExecutor(executor);
+        this.server.createContext("/", new HttpHandler() { // NOI18N
+
+                    @Override
+                    public void handle(final HttpExchange exchange) throws IOException {
+                        try {
+                            final InputStream body = exchange.getRequestBody();
+                            while (body.read() >= 0) {
+                                // drain the request
+                            }
+                            if (latency > 0) {
+                                Thread.sleep(latency);
+                            }
+                            if ("DELETE".equals(exchange.getRequestMethod())) { // NOI18N
+                                deletions.incrementAndGet();
+                                exchange.sendResponseHeaders(status, -1);
+                            } else {
+                                exchange.sendResponseHeaders(405, -1);
+                            }
+                        } catch (final InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            exchange.sendResponseHeaders(503, -1);
+                        } finally {
+                            exchange.close();
+                        }
+                    }
+                });
+        this.server.start();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The url of the root collection of the server.
+     *
+     * @return  the url, ending with a slash
+     */
+    String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/"; // NOI18N
+    }
+
+    /**
+     * The amount of deletions that were served.
+     *
+     * @return  the amount of deletions
+     */
+    long getDeletionCount() {
+        return deletions.get();
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws  InterruptedException  if the current thread is interrupted while waiting for the server threads
+     */
+    void stop() throws InterruptedException {
+        server.stop(0);
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,310 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.middleware.types.MetaObject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.rmi.RemoteException;
+
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-memory stand-in for the <code>MetaService</code> of a domain. It answers the queries of the server searches
+ * with generated rows: every table holds the objects with the ids <code>1</code> to <code>rows</code>, every time
+ * series name exists once per domain. Every call is delayed by the configured latency to simulate the round trip to
+ * the domain server and the database.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class StubMetaService implements InvocationHandler {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    static final int SRID = 4326;
+
+    private static final Pattern AFTER = Pattern.compile("> (-?\\d+) ORDER BY");        // NOI18N
+    private static final Pattern LIMIT = Pattern.compile("LIMIT (\\d+)");               // NOI18N
+    private static final Pattern IN_LIST = Pattern.compile("IN \\(([-\\d, ]*)\\)");     // NOI18N
+    private static final Pattern LITERAL = Pattern.compile("'((?:[^']|'')*)'");         // NOI18N
+    private static final byte[] WKB = new byte[] {
+            1, 1, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0
+        };
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final int rows;
+    private final long latency;
+    private final ConcurrentHashMap<String, MetaClass> classes;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new StubMetaService object.
+     *
+     * @param  domain   the domain
+     * @param  rows     the amount of rows per table
+     * @param  latency  the latency of every call in milliseconds
+     */
+    private StubMetaService(final String domain, final int rows, final long latency) {
+        this.domain = domain;
+        this.rows = rows;
+        this.latency = latency;
+        this.classes = new ConcurrentHashMap<String, MetaClass>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates the <code>MetaService</code> of a single domain.
+     *
+     * @param   domain   the domain
+     * @param   rows     the amount of rows per table
+     * @param   latency  the latency of every call in milliseconds
+     *
+     * @return  the <code>MetaService</code>
+     */
+    static MetaService create(final String domain, final int rows, final long latency) {
+        return (MetaService)Proxy.newProxyInstance(
+                StubMetaService.class.getClassLoader(),
+                new Class[] { MetaService.class },
+                new StubMetaService(domain, rows, latency));
+    }
+
+    /**
+     * Creates the active local servers of the given amount of domains, named <code>DOMAIN0</code> and so on.
+     *
+     * @param   count    the amount of domains
+     * @param   rows     the amount of rows per table
+     * @param   latency  the latency of every call in milliseconds
+     *
+     * @return  the <code>MetaService</code> per domain
+     */
+    static Map<String, MetaService> domains(final int count, final int rows, final long latency) {
+        final Map<String, MetaService> domains = new LinkedHashMap<String, MetaService>();
+        for (int i = 0; i < count; ++i) {
+            domains.put("DOMAIN" + i, create("DOMAIN" + i, rows, latency)); // NOI18N
+        }
+
+        return domains;
+    }
+
+    @Override
+    public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+        final String name = method.getName();
+        if ("hashCode".equals(name)) {                 // NOI18N
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(name)) {            // NOI18N
+            return proxy == args[0];
+        } else if ("toString".equals(name)) {          // NOI18N
+            return "StubMetaService[" + domain + "]";  // NOI18N
+        }
+
+        delay();
+
+        if ("performCustomSearch".equals(name)) {       // NOI18N
+            return rows((String)args[0]);
+        } else if ("getClassByTableName".equals(name)) { // NOI18N
+            return metaClass((String)args[1]);
+        } else if ("getMetaObject".equals(name) && (args.length == 3)) {   // NOI18N
+            return StubObjects.metaObject(classOf((Integer)args[2]), (Integer)args[1], domain);
+        } else if ("getMetaObject".equals(name) && (args.length == 2)) {   // NOI18N
+            return metaObjects((String)args[1]);
+        } else if ("update".equals(name)) {             // NOI18N
+            final String query = (String)args[1];
+
+            return query.contains(" IN (") ? ids(query).length : 1; // NOI18N
+        } else {
+            return StubObjects.defaultValue(method.getReturnType());
+        }
+    }
+
+    /**
+     * Simulates the round trip of a call.
+     *
+     * @throws  RemoteException  if the current thread was interrupted
+     */
+    private void delay() throws RemoteException {
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+
+                throw new RemoteException("interrupted", ex); // NOI18N
+            }
+        }
+    }
+
+    /**
+     * Provides the class of the given table.
+     *
+     * @param   tableName  the table name
+     *
+     * @return  the class
+     */
+    private synchronized MetaClass metaClass(final String tableName) {
+        final String key = tableName.toLowerCase();
+        MetaClass metaClass = classes.get(key);
+        if (metaClass == null) {
+            final MetaClass created = StubObjects.metaClass(classes.size() + 1, key, domain);
+            metaClass = classes.putIfAbsent(key, created);
+            if (metaClass == null) {
+                metaClass = created;
+            }
+        }
+
+        return metaClass;
+    }
+
+    /**
+     * Provides the class of the given id.
+     *
+     * @param   classId  the class id
+     *
+     * @return  the class, created if no class of the id was requested before
+     */
+    private MetaClass classOf(final int classId) {
+        for (final MetaClass metaClass : classes.values()) {
+            if (metaClass.getID() == classId) {
+                return metaClass;
+            }
+        }
+
+        return metaClass("class" + classId); // NOI18N
+    }
+
+    /**
+     * Answers a bulk fetch of the <code>MetaObjectLoader</code>.
+     *
+     * @param   query  the <code>classid, objectid</code> query
+     *
+     * @return  the objects of the ids of the IN-list
+     */
+    private MetaObject[] metaObjects(final String query) {
+        final MetaClass metaClass = classOf(Integer.parseInt(query.substring(7, query.indexOf(',')).trim()));
+        final int[] ids = ids(query);
+        final MetaObject[] metaObjects = new MetaObject[ids.length];
+        for (int i = 0; i < ids.length; ++i) {
+            metaObjects[i] = StubObjects.metaObject(metaClass, ids[i], domain);
+        }
+
+        return metaObjects;
+    }
+
+    /**
+     * Extracts the ids of the IN-list of the given query.
+     *
+     * @param   query  the query
+     *
+     * @return  the ids
+     */
+    private static int[] ids(final String query) {
+        final Matcher m = IN_LIST.matcher(query);
+        if (!m.find() || m.group(1).trim().isEmpty()) {
+            return new int[0];
+        }
+
+        final String[] values = m.group(1).split(","); // NOI18N
+        final int[] ids = new int[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            ids[i] = Integer.parseInt(values[i].trim());
+        }
+
+        return ids;
+    }
+
+    /**
+     * Answers a query of the server searches.
+     *
+     * @param   query  the query
+     *
+     * @return  the generated rows
+     */
+    private ArrayList<ArrayList> rows(final String query) {
+        final ArrayList<ArrayList> result = new ArrayList<ArrayList>();
+        if (query.contains("modelinput")) {                                  // NOI18N
+            // probe of the UnfinishedRunSearchStatement
+            result.add(row(1, 1, 1, 1));
+        } else if (query.startsWith("SELECT max(GREATEST")) {                // NOI18N
+            result.add(row(new Timestamp(0)));
+        } else if (query.startsWith("SELECT ST_SRID")) {                     // NOI18N
+            result.add(row(SRID));
+        } else if (query.toLowerCase().contains("from timeseries where name")) { // NOI18N
+            final Matcher m = LITERAL.matcher(query);
+            while (m.find()) {
+                final String name = m.group(1).replace("''", "'");           // NOI18N
+                result.add(row((name.hashCode() & 0x7fffffff) % Math.max(1, rows), name));
+            }
+        } else {
+            final Matcher after = AFTER.matcher(query);
+            final Matcher limit = LIMIT.matcher(query);
+            final int first = after.find() ? (int)Math.max(1, Long.parseLong(after.group(1)) + 1) : 1;
+            final int max = limit.find() ? Integer.parseInt(limit.group(1)) : Integer.MAX_VALUE;
+            for (int id = first; (id <= rows) && (result.size() < max); ++id) {
+                result.add(columns(query, id));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates the row of the given id for a query that selects objects by id.
+     *
+     * @param   query  the query
+     * @param   id     the object id
+     *
+     * @return  the row
+     */
+    private static ArrayList columns(final String query, final int id) {
+        if (query.startsWith("SELECT id, GREATEST")) {                       // NOI18N
+            return row(id, new Timestamp(1000L * id));
+        } else if (query.startsWith("SELECT e.id, e.name")) {                // NOI18N
+            if (query.contains("ST_XMin")) {                                 // NOI18N
+                return row(id, "emission database " + id, null, SRID, 0d, 0d, 1d, 1d); // NOI18N
+            } else if (query.contains("ST_AsBinary")) {                      // NOI18N
+                return row(id, "emission database " + id, null, SRID, WKB.clone()); // NOI18N
+            } else {
+                return row(id, "emission database " + id, null);             // NOI18N
+            }
+        } else if (query.startsWith("SELECT id, name, description, geometry")) { // NOI18N
+            return row(id, "emission database " + id, null, id);             // NOI18N
+        } else {
+            return row(id);
+        }
+    }
+
+    /**
+     * Creates a row of the given values.
+     *
+     * @param   values  the column values
+     *
+     * @return  the row
+     */
+    private static ArrayList row(final Object... values) {
+        final List<Object> columns = Arrays.asList(values);
+
+        return new ArrayList<Object>(columns);
+    }
+}
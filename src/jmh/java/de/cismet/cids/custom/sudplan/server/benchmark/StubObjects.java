@@ -0,0 +1,159 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.middleware.types.MetaObject;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import de.cismet.cids.dynamics.CidsBean;
+
+/**
+ * Creates the stand-ins for the cids types the benchmarks need: {@link MetaClass}es, {@link MetaObject}s and
+ * {@link CidsBean}s without a running domain server.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class StubObjects {
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new StubObjects object.
+     */
+    private StubObjects() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates a class of the given table from a class description, the way a domain server does.
+     *
+     * @param   id         the class id
+     * @param   tableName  the table name
+     * @param   domain     the domain
+     *
+     * @return  the class
+     */
+    static MetaClass metaClass(final int id, final String tableName, final String domain) {
+        return new MetaClass(new Sirius.server.localserver._class.Class(
+                    id,
+                    tableName,
+                    null,
+                    null,
+                    null,
+                    tableName,
+                    "id", // NOI18N
+                    null,
+                    null,
+                    null,
+                    false),
+                domain);
+    }
+
+    /**
+     * Creates an object of the given class.
+     *
+     * @param   metaClass  the class
+     * @param   id         the object id
+     * @param   domain     the domain
+     *
+     * @return  the object
+     */
+    static MetaObject metaObject(final MetaClass metaClass, final int id, final String domain) {
+        return (MetaObject)Proxy.newProxyInstance(
+                StubObjects.class.getClassLoader(),
+                new Class[] { MetaObject.class },
+                new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                        final String name = method.getName();
+                        if ("getID".equals(name)) {                // NOI18N
+                            return id;
+                        } else if ("getClassID".equals(name)) {    // NOI18N
+                            return metaClass.getID();
+                        } else if ("getDomain".equals(name)) {     // NOI18N
+                            return domain;
+                        } else if ("getMetaClass".equals(name)) {  // NOI18N
+                            return metaClass;
+                        } else if ("hashCode".equals(name)) {      // NOI18N
+                            return id;
+                        } else if ("equals".equals(name)) {        // NOI18N
+                            return proxy == args[0];
+                        } else if ("toString".equals(name)) {      // NOI18N
+                            return domain + ":" + metaClass.getTableName() + ":" + id; // NOI18N
+                        } else {
+                            return defaultValue(method.getReturnType());
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Creates a bean of the given object that has the given uri and name.
+     *
+     * @param   metaObject  the object of the bean
+     * @param   name        the value of the property <code>name</code>
+     * @param   uri         the value of the property <code>uri</code>
+     *
+     * @return  the bean
+     */
+    static CidsBean cidsBean(final MetaObject metaObject, final String name, final String uri) {
+        return new CidsBean() {
+
+                @Override
+                public Object getProperty(final String property) {
+                    if ("uri".equals(property)) {          // NOI18N
+                        return uri;
+                    } else if ("name".equals(property)) {  // NOI18N
+                        return name;
+                    } else {
+                        return null;
+                    }
+                }
+
+                @Override
+                public MetaObject getMetaObject() {
+                    return metaObject;
+                }
+            };
+    }
+
+    /**
+     * Provides the value a stub returns for methods it does not implement.
+     *
+     * @param   type  the return type of the method
+     *
+     * @return  <code>null</code> or the default value of the primitive type
+     */
+    static Object defaultValue(final Class<?> type) {
+        if (!type.isPrimitive() || (void.class == type)) {
+            return null;
+        } else if (boolean.class == type) {
+            return false;
+        } else if (char.class == type) {
+            return '\0';
+        } else if (long.class == type) {
+            return 0L;
+        } else if (float.class == type) {
+            return 0f;
+        } else if (double.class == type) {
+            return 0d;
+        } else if (byte.class == type) {
+            return (byte)0;
+        } else if (short.class == type) {
+            return (short)0;
+        } else {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.types.MetaClass;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.trigger.RunCacheInvalidationTrigger;
+import de.cismet.cids.custom.sudplan.server.trigger.TimeSeriesDeletionTrigger;
+import de.cismet.cids.custom.sudplan.server.trigger.TimeSeriesFiles;
+
+import de.cismet.cids.dynamics.CidsBean;
+
+/**
+ * Measures the {@link TimeSeriesDeletionTrigger} against a {@link LocalWebDav}: the deletion of the files of a time
+ * series within the trigger, the deletion of a single file and the dispatch of an unrelated bean to the triggers that
+ * are registered for all classes. The WebDAV host and the aggregation suffixes are set as system properties before
+ * the trigger classes are initialised, every parameter combination runs in a fork of its own.
+ *
+ * @version  $Revision$, $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TimeSeriesDeletionBenchmark {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final String PROP_WEBDAV_PREFIX = "de.cismet.cids.custom.sudplan.server.trigger.webdav."; // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    /** the latency of every WebDAV response in milliseconds. */
+    @Param({ "0", "5" })
+    public long latency;
+
+    /** the aggregation suffixes, i.e. the amount of files per time series minus one. */
+    @Param({ "_86400s", "_3600s,_86400s,_604800s" })
+    public String aggregationSuffixes;
+
+    private LocalWebDav webDav;
+    private TimeSeriesDeletionTrigger deletionTrigger;
+    private RunCacheInvalidationTrigger runTrigger;
+    private CidsBean timeSeries;
+    private CidsBean unrelated;
+    private String fileUri;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Starts the WebDAV and creates the triggers and beans.
+     *
+     * @throws  IOException  if the WebDAV cannot be started
+     */
+    @Setup
+    public void setUp() throws IOException {
+        webDav = new LocalWebDav(latency, 204, 16);
+        System.setProperty(PROP_WEBDAV_PREFIX + "host", webDav.getBaseUrl());   // NOI18N
+        // the stand-in accepts any credentials
+        System.setProperty(PROP_WEBDAV_PREFIX + "user", "benchmark");     // NOI18N
+        System.setProperty(PROP_WEBDAV_PREFIX + "password", "benchmark"); // NOI18N
+        System.setProperty(TimeSeriesDeletionTrigger.PROP_AGGREGATION_SUFFIXES, aggregationSuffixes);
+
+        deletionTrigger = new TimeSeriesDeletionTrigger();
+        runTrigger = new RunCacheInvalidationTrigger();
+
+        final MetaClass timeSeriesClass = StubObjects.metaClass(1, "timeseries", "SUDPLAN");     // NOI18N
+        timeSeries = StubObjects.cidsBean(
+                StubObjects.metaObject(timeSeriesClass, 1, "SUDPLAN"),                            // NOI18N
+                "benchmark",                                                                      // NOI18N
+                "dav:benchmark?ts:offering=benchmark_unknown");                                   // NOI18N
+        final MetaClass otherClass = StubObjects.metaClass(2, "modeloutput", "SUDPLAN");         // NOI18N
+        unrelated = StubObjects.cidsBean(StubObjects.metaObject(otherClass, 1, "SUDPLAN"), null, null); // NOI18N
+        fileUri = webDav.getBaseUrl() + "benchmark_unknown";                                     // NOI18N
+    }
+
+    /**
+     * Stops the WebDAV.
+     *
+     * @throws  InterruptedException  if interrupted while stopping
+     */
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        webDav.stop();
+    }
+
+    /**
+     * Deletes the files of a time series the way the trigger does before the time series is deleted.
+     */
+    @Benchmark
+    public void deleteTimeSeries() {
+        deletionTrigger.beforeDelete(timeSeries, null);
+    }
+
+    /**
+     * Deletes a single file using the shared WebDAV client.
+     *
+     * @return  the HTTP status
+     *
+     * @throws  IOException  if the request fails
+     */
+    @Benchmark
+    public int deleteFile() throws IOException {
+        return TimeSeriesFiles.getInstance().delete(fileUri);
+    }
+
+    /**
+     * Dispatches the deletion of a bean of another class to the triggers registered for all classes.
+     */
+    @Benchmark
+    public void dispatchUnrelated() {
+        deletionTrigger.beforeDelete(unrelated, null);
+        deletionTrigger.afterDelete(unrelated, null);
+        deletionTrigger.afterCommittedDelete(unrelated, null);
+        runTrigger.beforeDelete(unrelated, null);
+        runTrigger.afterDelete(unrelated, null);
+        runTrigger.afterCommittedDelete(unrelated, null);
+    }
+}
@@ -0,0 +1,112 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.search.FanOutMode;
+import de.cismet.cids.custom.sudplan.server.search.TimeSeriesNameCache;
+import de.cismet.cids.custom.sudplan.server.search.TimeSeriesSearch;
+
+/**
+ * Measures the {@link TimeSeriesSearch} against {@link StubMetaService} domains. The parameters compare single and
+ * batched lookups, waiting for all domains with stopping at the first hit and lookups served by the
+ * {@link TimeSeriesNameCache} with lookups that query the domains.
+ *
+ * @version  $Revision$, $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TimeSeriesSearchBenchmark {
+
+    //~ Instance fields --------------------------------------------------------
+
+    /** the amount of domains. */
+    @Param({ "1", "8" })
+    public int domains;
+
+    /** the latency of every call to a domain in milliseconds. */
+    @Param({ "2" })
+    public long latency;
+
+    /** the amount of names looked up at once. */
+    @Param({ "1", "20" })
+    public int names;
+
+    /** whether the search waits for all domains or stops as soon as every name was found. */
+    @Param({ "ALL", "FIRST_HIT" })
+    public FanOutMode fanOutMode;
+
+    /** whether the lookups may be served by the name cache. */
+    @Param({ "false", "true" })
+    public boolean cached;
+
+    private Map<String, MetaService> servers;
+    private List<String> lookup;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates the domains and the names to look up.
+     */
+    @Setup
+    public void setUp() {
+        servers = StubMetaService.domains(domains, 1000, latency);
+        lookup = new ArrayList<String>(names);
+        for (int i = 0; i < names; ++i) {
+            lookup.add("benchmark_" + i + "_unknown"); // NOI18N
+        }
+    }
+
+    /**
+     * Empties the name cache before every lookup unless cached lookups are measured.
+     */
+    @Setup(Level.Invocation)
+    public void clearCache() {
+        if (!cached) {
+            TimeSeriesNameCache.getInstance().clear();
+        }
+    }
+
+    /**
+     * Performs a lookup.
+     *
+     * @return  the result
+     */
+    @Benchmark
+    public Collection search() {
+        final TimeSeriesSearch search = new TimeSeriesSearch(lookup);
+        search.setActiveLocalServers(servers);
+        search.setFanOutMode(fanOutMode);
+
+        return search.performServerSearch();
+    }
+}
@@ -0,0 +1,100 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.benchmark;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.search.UnfinishedRunSearchStatement;
+
+/**
+ * Measures the {@link UnfinishedRunSearchStatement} against {@link StubMetaService} domains. The parameters compare
+ * the materialisation with and without parallel chunks, different chunk sizes and the search with and without the
+ * <code>UnfinishedRunCache</code>. The fan out to the domains always uses the <code>SearchExecutor</code>, a
+ * sequential fan out is measured by restricting it to a single thread:
+ * <code>-jvmArgsAppend -Dde.cismet.cids.custom.sudplan.server.search.executor.threads=1</code>.
+ *
+ * @version  $Revision$, $Date$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class UnfinishedRunSearchBenchmark {
+
+    //~ Instance fields --------------------------------------------------------
+
+    /** the amount of domains. */
+    @Param({ "1", "8" })
+    public int domains;
+
+    /** the amount of unfinished runs per domain. */
+    @Param({ "1000" })
+    public int rows;
+
+    /** the latency of every call to a domain in milliseconds. */
+    @Param({ "2" })
+    public long latency;
+
+    /** the amount of chunks of a domain that are materialised concurrently. */
+    @Param({ "1", "8" })
+    public int parallelism;
+
+    /** the amount of runs fetched with a single call. */
+    @Param({ "100" })
+    public int chunkSize;
+
+    /** whether concurrent and repeated searches share their results. */
+    @Param({ "false", "true" })
+    public boolean useCache;
+
+    private Map<String, MetaService> servers;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates the domains.
+     */
+    @Setup
+    public void setUp() {
+        servers = StubMetaService.domains(domains, rows, latency);
+    }
+
+    /**
+     * Performs a search.
+     *
+     * @return  the result
+     */
+    @Benchmark
+    public Collection search() {
+        final UnfinishedRunSearchStatement search = new UnfinishedRunSearchStatement();
+        search.setActiveLocalServers(servers);
+        search.setParallelism(parallelism);
+        search.setChunkSize(chunkSize);
+        search.setUseCache(useCache);
+
+        return search.performServerSearch();
+    }
+}
@@ -0,0 +1,58 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread-safe, monotonically increasing count, e.g. of results or errors.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class Counter {
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final AtomicLong count;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new Counter object.
+     */
+    Counter() {
+        this.count = new AtomicLong(0);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Increments the count by one.
+     */
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    /**
+     * Increments the count by the given amount.
+     *
+     * @param  delta  the amount to add
+     */
+    public void add(final long delta) {
+        count.addAndGet(delta);
+    }
+
+    /**
+     * The current count.
+     *
+     * @return  the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+}
@@ -0,0 +1,25 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.metrics;
+
+/**
+ * A value that is read when the metrics are reported, e.g. the size of a queue or the hits of a cache.
+ *
+ * @version  $Revision$, $Date$
+ */
+public interface Gauge {
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Reads the current value.
+     *
+     * @return  the current value
+     */
+    long getValue();
+}
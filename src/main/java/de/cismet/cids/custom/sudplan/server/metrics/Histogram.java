@@ -0,0 +1,150 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe latency histogram with fixed buckets from 1 millisecond to 1 minute. Besides the count, the mean and
+ * the maximum it estimates percentiles by the upper bound of the bucket the percentile falls into, which is precise
+ * enough to tell a slow phase from a fast one without keeping every sample.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class Histogram {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** the upper bounds of the buckets in milliseconds, the last bucket takes everything above. */
+    private static final long[] BOUNDS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000, 60000 };
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new Histogram object.
+     */
+    Histogram() {
+        this.buckets = new AtomicLongArray(BOUNDS.length + 1);
+        this.count = new AtomicLong(0);
+        this.totalNanos = new AtomicLong(0);
+        this.maxNanos = new AtomicLong(0);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Records a duration.
+     *
+     * @param  nanos  the duration in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while ((bucket < BOUNDS.length) && (millis >= BOUNDS[bucket])) {
+            ++bucket;
+        }
+        buckets.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+
+        long max = maxNanos.get();
+        while ((nanos > max) && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Records the time passed since the given start.
+     *
+     * @param   startNanos  the start as obtained by {@link System#nanoTime()}
+     *
+     * @return  the current {@link System#nanoTime()}, usable as start of the next phase
+     */
+    public long recordSince(final long startNanos) {
+        final long now = System.nanoTime();
+        record(now - startNanos);
+
+        return now;
+    }
+
+    /**
+     * The amount of recorded durations.
+     *
+     * @return  the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * The mean of the recorded durations.
+     *
+     * @return  the mean in milliseconds or <code>0</code> if nothing was recorded
+     */
+    public double getMeanMillis() {
+        final long n = count.get();
+
+        return (n == 0) ? 0 : (totalNanos.get() / (n * 1000000d));
+    }
+
+    /**
+     * The longest recorded duration.
+     *
+     * @return  the maximum in milliseconds
+     */
+    public double getMaxMillis() {
+        return maxNanos.get() / 1000000d;
+    }
+
+    /**
+     * Estimates the given percentile.
+     *
+     * @param   percentile  the percentile between 0 and 100
+     *
+     * @return  the upper bound of the bucket of the percentile in milliseconds, the maximum if it falls into the last
+     *          bucket
+     */
+    public double getPercentileMillis(final double percentile) {
+        final long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+
+        final long rank = (long)Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100d);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; ++i) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(BOUNDS[i], getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "count=%d mean=%.1fms p50=%.0fms p95=%.0fms p99=%.0fms max=%.1fms", // NOI18N
+                getCount(),
+                getMeanMillis(),
+                getPercentileMillis(50),
+                getPercentileMillis(95),
+                getPercentileMillis(99),
+                getMaxMillis());
+    }
+}
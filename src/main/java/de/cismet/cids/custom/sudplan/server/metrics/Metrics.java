@@ -0,0 +1,239 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.metrics;
+
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+
+/**
+ * Server wide registry of the metrics of the server searches and triggers: latency {@link Histogram}s per phase and per
+ * domain, {@link Counter}s of results and errors and {@link Gauge}s of queues and caches. Metrics are created on first
+ * use and identified by dotted names, e.g. <code>runs.phase.probe</code> or <code>webdav.status.404</code>.<br/>
+ * <br/>
+ * All metrics are exposed as read-only attributes of the MBean {@link #OBJECT_NAME} of the platform MBean server. A
+ * summary of all metrics is written to the log periodically (system property <code>logInterval</code> in milliseconds
+ * with the prefix {@link #PROP_PREFIX}, default 10 minutes, <code>0</code> turns the summary off).
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class Metrics {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(Metrics.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.metrics."; // NOI18N
+    public static final String OBJECT_NAME = "de.cismet.cids.custom.sudplan.server:type=Metrics"; // NOI18N
+
+    private static final Metrics INSTANCE = new Metrics(Long.getLong(
+                PROP_PREFIX + "logInterval",                                                  // NOI18N
+                TimeUnit.MINUTES.toMillis(10)));
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final ConcurrentHashMap<String, Histogram> histograms;
+    private final ConcurrentHashMap<String, Counter> counters;
+    private final ConcurrentHashMap<String, Gauge> gauges;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new Metrics object, registers its MBean and schedules the summary.
+     *
+     * @param  logInterval  the interval of the summary in milliseconds, not positive to turn it off
+     */
+    private Metrics(final long logInterval) {
+        this.histograms = new ConcurrentHashMap<String, Histogram>();
+        this.counters = new ConcurrentHashMap<String, Counter>();
+        this.gauges = new ConcurrentHashMap<String, Gauge>();
+
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(this), name);
+            }
+        } catch (final Exception ex) {
+            // the metrics are still logged
+            LOG.warn("cannot register metrics MBean " + OBJECT_NAME, ex); // NOI18N
+        }
+
+        if (logInterval > 0) {
+            final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                    SudplanConcurrency.createThreadFactory("sudplan-metrics")); // NOI18N
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        if (LOG.isInfoEnabled()) {
+                            LOG.info(getSummary());
+                        }
+                    }
+                }, logInterval, logInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide metrics.
+     *
+     * @return  the metrics
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Provides the histogram of the given name, creating it if necessary.
+     *
+     * @param   name  the name of the histogram
+     *
+     * @return  the histogram
+     */
+    public Histogram histogram(final String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            final Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+
+        return histogram;
+    }
+
+    /**
+     * Provides the counter of the given name, creating it if necessary.
+     *
+     * @param   name  the name of the counter
+     *
+     * @return  the counter
+     */
+    public Counter counter(final String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            final Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+
+        return counter;
+    }
+
+    /**
+     * Registers a gauge, replacing a gauge of the same name.
+     *
+     * @param  name   the name of the gauge
+     * @param  gauge  the gauge
+     */
+    public void gauge(final String name, final Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Records the time passed since the given start in the histogram of the given name.
+     *
+     * @param   name        the name of the histogram
+     * @param   startNanos  the start as obtained by {@link System#nanoTime()}
+     *
+     * @return  the current {@link System#nanoTime()}, usable as start of the next phase
+     */
+    public long stop(final String name, final long startNanos) {
+        return histogram(name).recordSince(startNanos);
+    }
+
+    /**
+     * Increments the counter of the given name by one.
+     *
+     * @param  name  the name of the counter
+     */
+    public void increment(final String name) {
+        counter(name).increment();
+    }
+
+    /**
+     * Increments the counter of the given name by the given amount.
+     *
+     * @param  name   the name of the counter
+     * @param  delta  the amount to add
+     */
+    public void add(final String name, final long delta) {
+        counter(name).add(delta);
+    }
+
+    /**
+     * Reads all metrics. Histograms contribute their count, mean, 95th percentile and maximum.
+     *
+     * @return  the value per attribute name in the order of the names
+     */
+    public Map<String, Number> snapshot() {
+        final Map<String, Number> snapshot = new TreeMap<String, Number>();
+        for (final Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            final Histogram histogram = entry.getValue();
+            snapshot.put(entry.getKey() + ".count", histogram.getCount());                   // NOI18N
+            snapshot.put(entry.getKey() + ".meanMillis", histogram.getMeanMillis());         // NOI18N
+            snapshot.put(entry.getKey() + ".p95Millis", histogram.getPercentileMillis(95)); // NOI18N
+            snapshot.put(entry.getKey() + ".maxMillis", histogram.getMaxMillis());           // NOI18N
+        }
+        for (final Map.Entry<String, Counter> entry : counters.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().getCount());
+        }
+        for (final Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            try {
+                snapshot.put(entry.getKey(), entry.getValue().getValue());
+            } catch (final RuntimeException ex) {
+                LOG.warn("cannot read gauge " + entry.getKey(), ex);                        // NOI18N
+            }
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Creates a human readable summary of all metrics, one line per metric.
+     *
+     * @return  the summary
+     */
+    public String getSummary() {
+        final StringBuilder sb = new StringBuilder("sudplan server metrics:");                // NOI18N
+        for (final Map.Entry<String, Histogram> entry : new TreeMap<String, Histogram>(histograms).entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue()); // NOI18N
+        }
+        for (final Map.Entry<String, Counter> entry : new TreeMap<String, Counter>(counters).entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ").append(entry.getValue().getCount()); // NOI18N
+        }
+        for (final Map.Entry<String, Gauge> entry : new TreeMap<String, Gauge>(gauges).entrySet()) {
+            sb.append("\n  ").append(entry.getKey()).append(": ");                           // NOI18N
+            try {
+                sb.append(entry.getValue().getValue());
+            } catch (final RuntimeException ex) {
+                sb.append(ex);
+            }
+        }
+
+        return sb.toString();
+    }
+}
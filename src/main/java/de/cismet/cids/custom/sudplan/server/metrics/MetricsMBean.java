@@ -0,0 +1,127 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Exposes the {@link Metrics} via JMX. As the metrics are created on first use the attributes are determined whenever
+ * the MBean info is requested. All attributes are read-only, the operation <code>summary</code> provides the summary
+ * that is written to the log.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class MetricsMBean implements DynamicMBean {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final String OP_SUMMARY = "summary"; // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final Metrics metrics;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new MetricsMBean object.
+     *
+     * @param  metrics  the metrics to expose
+     */
+    MetricsMBean(final Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public Object getAttribute(final String attribute) throws AttributeNotFoundException {
+        final Number value = metrics.snapshot().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        return value;
+    }
+
+    @Override
+    public void setAttribute(final Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("metrics are read-only: " + attribute.getName()); // NOI18N
+    }
+
+    @Override
+    public AttributeList getAttributes(final String[] attributes) {
+        final Map<String, Number> snapshot = metrics.snapshot();
+        final AttributeList list = new AttributeList();
+        for (final String attribute : attributes) {
+            final Number value = snapshot.get(attribute);
+            if (value != null) {
+                list.add(new Attribute(attribute, value));
+            }
+        }
+
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(final AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(final String actionName, final Object[] params, final String[] signature)
+            throws MBeanException, ReflectionException {
+        if (OP_SUMMARY.equals(actionName)) {
+            return metrics.getSummary();
+        }
+
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        final List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        for (final Map.Entry<String, Number> entry : metrics.snapshot().entrySet()) {
+            attributes.add(new MBeanAttributeInfo(
+                    entry.getKey(),
+                    entry.getValue().getClass().getName(),
+                    entry.getKey(),
+                    true,
+                    false,
+                    false));
+        }
+
+        final MBeanOperationInfo summary = new MBeanOperationInfo(
+                OP_SUMMARY,
+                "summary of all metrics", // NOI18N
+                new MBeanParameterInfo[0],
+                String.class.getName(),
+                MBeanOperationInfo.INFO);
+
+        return new MBeanInfo(
+                Metrics.class.getName(),
+                "metrics of the sudplan server searches and triggers", // NOI18N
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]),
+                null,
+                new MBeanOperationInfo[] { summary },
+                null);
+    }
+}
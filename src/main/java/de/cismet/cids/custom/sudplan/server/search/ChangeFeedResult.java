@@ -0,0 +1,75 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of an incremental search: the objects that changed since the watermarks passed by the caller and the new
+ * watermark per domain. The caller passes the new watermarks to the next search. The watermark of a domain that did
+ * not deliver a complete result is the one passed by the caller, so its changes are delivered again. The objects
+ * are updates by id, an object may be delivered again by the next search.
+ *
+ * @param    <E>  the type of the result elements
+ *
+ * @version  $Revision$, $Date$
+ */
+public class ChangeFeedResult<E> extends FederatedSearchResult<E> {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = 8532318063921781149L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final HashMap<String, Date> watermarks;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new, empty ChangeFeedResult object.
+     */
+    public ChangeFeedResult() {
+        this.watermarks = new HashMap<String, Date>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Records the watermark of the given domain.
+     *
+     * @param  domain     the domain
+     * @param  watermark  the watermark or <code>null</code> if the domain has no changes at all yet
+     */
+    public void setWatermark(final String domain, final Date watermark) {
+        watermarks.put(domain, watermark);
+    }
+
+    /**
+     * Provides the watermark of the given domain.
+     *
+     * @param   domain  the domain
+     *
+     * @return  the watermark or <code>null</code> if the domain was not queried or has no changes at all yet
+     */
+    public Date getWatermark(final String domain) {
+        return watermarks.get(domain);
+    }
+
+    /**
+     * Provides the watermark of every queried domain, to be passed to the next search.
+     *
+     * @return  an unmodifiable view of the watermark per domain
+     */
+    public Map<String, Date> getWatermarks() {
+        return Collections.unmodifiableMap(watermarks);
+    }
+}
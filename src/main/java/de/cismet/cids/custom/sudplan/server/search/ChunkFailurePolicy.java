@@ -0,0 +1,24 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * Determines how a search reacts if a chunk of objects cannot be materialised.
+ *
+ * @version  $Revision$, $Date$
+ */
+public enum ChunkFailurePolicy {
+
+    //~ Enum constants ---------------------------------------------------------
+
+    /** The whole (domain) result is discarded as soon as a single chunk fails. */
+    ABORT,
+
+    /** The failing chunk is logged and left out, the objects of all other chunks are delivered. */
+    SKIP_CHUNK
+}
@@ -0,0 +1,216 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.apache.log4j.Logger;
+
+import java.io.InterruptedIOException;
+
+import java.net.SocketException;
+
+import java.rmi.ConnectIOException;
+import java.rmi.MarshalException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.UnknownHostException;
+import java.rmi.UnmarshalException;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the outcome of capability probes, i.e. test statements that tell whether a domain supports a certain search.
+ * A probe succeeds if its statement can be executed without a <code>RemoteException</code>, it fails if the domain
+ * answers the statement with an error, e.g. because it lacks the tables. Successful and failed probes are cached for a
+ * configurable time so that the probe statement is not sent with every search. A probe that cannot reach the domain,
+ * e.g. because the connection is refused or breaks, tells nothing about the capability: it is not cached and the error
+ * is passed to the caller, so the domain is reported as failed instead of being skipped. An entry is also discarded if
+ * the <code>MetaService</code> of the domain changed, e.g. because the domain server was restarted. The cache is
+ * shared by all searches, whatever subset of the domains they query.
+ * The times to live are read from the system properties <code>positiveTtl</code> (default 30 minutes) and <code>
+ * negativeTtl</code> (default 5 minutes) with the prefix {@link #PROP_PREFIX}, both in milliseconds.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class DomainCapabilityCache {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(DomainCapabilityCache.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.capabilities."; // NOI18N
+
+    private static final DomainCapabilityCache INSTANCE = new DomainCapabilityCache(
+            Long.getLong(PROP_PREFIX + "positiveTtl", TimeUnit.MINUTES.toMillis(30)),  // NOI18N
+            Long.getLong(PROP_PREFIX + "negativeTtl", TimeUnit.MINUTES.toMillis(5)));  // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long positiveTtl;
+    private final long negativeTtl;
+    private final ConcurrentHashMap<String, Map<String, Entry>> entries;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new DomainCapabilityCache object.
+     *
+     * @param  positiveTtl  the time to live of successful probes in milliseconds
+     * @param  negativeTtl  the time to live of failed probes in milliseconds
+     */
+    private DomainCapabilityCache(final long positiveTtl, final long negativeTtl) {
+        this.positiveTtl = positiveTtl;
+        this.negativeTtl = negativeTtl;
+        this.entries = new ConcurrentHashMap<String, Map<String, Entry>>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide capability cache.
+     *
+     * @return  the capability cache
+     */
+    public static DomainCapabilityCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Tells whether the given domain supports the capability that is tested by the given probe statement. The probe is
+     * only executed if there is no valid cache entry.
+     *
+     * @param   domain  the domain to test
+     * @param   ms      the <code>MetaService</code> of the domain
+     * @param   probe   the statement that succeeds if the domain has the capability
+     *
+     * @return  <code>true</code> if the domain has the capability
+     *
+     * @throws  RemoteException  if the probe cannot reach the domain, nothing is cached then
+     */
+    public boolean isCapable(final String domain, final MetaService ms, final String probe) throws RemoteException {
+        final Map<String, Entry> domainEntries = getDomainEntries(domain);
+        final Entry cached = domainEntries.get(probe);
+        final long now = System.currentTimeMillis();
+
+        if ((cached != null) && (cached.ms == ms) && (cached.expires > now)) {
+            return cached.capable;
+        }
+
+        boolean capable;
+        try {
+            ms.performCustomSearch(probe);
+            capable = true;
+        } catch (final RemoteException ex) {
+            if (isTransportFailure(ex)) {
+                LOG.warn("probe cannot reach domain " + domain + ": " + probe, ex); // NOI18N
+
+                throw ex;
+            }
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("probe failed for domain " + domain + ": " + probe, ex);  // NOI18N
+            }
+            capable = false;
+        }
+
+        domainEntries.put(probe, new Entry(ms, capable, now + (capable ? positiveTtl : negativeTtl)));
+
+        return capable;
+    }
+
+    /**
+     * Checks whether the given exception was caused by the connection to the domain rather than by the domain
+     * answering the probe with an error.
+     *
+     * @param   ex  the exception of the probe
+     *
+     * @return  <code>true</code> if the domain could not be reached or the connection broke
+     */
+    private static boolean isTransportFailure(final RemoteException ex) {
+        for (Throwable t = ex; t != null; t = (t.getCause() == t) ? null : t.getCause()) {
+            if ((t instanceof java.rmi.ConnectException) || (t instanceof ConnectIOException)
+                        || (t instanceof UnknownHostException) || (t instanceof NoSuchObjectException)
+                        || (t instanceof MarshalException) || (t instanceof UnmarshalException)
+                        || (t instanceof SocketException) || (t instanceof InterruptedIOException)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Provides the entries of the given domain, creating them if necessary.
+     *
+     * @param   domain  the domain
+     *
+     * @return  the entries of the domain
+     */
+    private Map<String, Entry> getDomainEntries(final String domain) {
+        Map<String, Entry> domainEntries = entries.get(domain);
+        if (domainEntries == null) {
+            final Map<String, Entry> created = new ConcurrentHashMap<String, Entry>();
+            domainEntries = entries.putIfAbsent(domain, created);
+            if (domainEntries == null) {
+                domainEntries = created;
+            }
+        }
+
+        return domainEntries;
+    }
+
+    /**
+     * Discards all cached probes of the given domain, e.g. because the domain server joined or left.
+     *
+     * @param  domain  the domain
+     */
+    public void invalidate(final String domain) {
+        entries.remove(domain);
+    }
+
+    /**
+     * Discards all cached probes.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * DOCUMENT ME!
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class Entry {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final MetaService ms;
+        private final boolean capable;
+        private final long expires;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new Entry object.
+         *
+         * @param  ms       the service the probe was executed on
+         * @param  capable  the outcome of the probe
+         * @param  expires  the time in milliseconds the entry is valid until
+         */
+        Entry(final MetaService ms, final boolean capable, final long expires) {
+            this.ms = ms;
+            this.capable = capable;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import org.apache.log4j.Logger;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes one task per domain on the {@link SearchExecutor} and collects the results as they complete. Every task has
+ * its own deadline, tasks that did not finish in time are cancelled and reported as {@link DomainStatus#TIMED_OUT}.
+ * Thus the latency of a search is bound by the timeout and not by the slowest domain. The tasks are never run by the
+ * submitting thread, regardless of the rejection policy of the executor, because a task running inline could not be
+ * cancelled at its deadline and would delay the tasks of the other domains. A task the saturated executor rejects is
+ * reported as {@link DomainStatus#FAILED} right away.
+ *
+ * @param    <T>  the type of the per domain result
+ *
+ * @version  $Revision$, $Date$
+ */
+final class DomainFanOut<T> {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(DomainFanOut.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final CompletionService<T> completionService;
+    private final long timeoutNanos;
+
+    private final Map<Future<T>, String> pending;
+    private final Map<Future<T>, Long> deadlines;
+    private final Map<String, DomainStatus> status;
+    private final Map<String, Throwable> errors;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new DomainFanOut object.
+     *
+     * @param  executor  the executor to run the tasks
+     * @param  timeout   the time every domain has to deliver its result
+     * @param  unit      the unit of the timeout
+     */
+    DomainFanOut(final SearchExecutor executor, final long timeout, final TimeUnit unit) {
+        this.completionService = new ExecutorCompletionService<T>(new Executor() {
+
+                    @Override
+                    public void execute(final Runnable command) {
+                        executor.execute(command, SearchExecutor.RejectionPolicy.ABORT);
+                    }
+                });
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.pending = new HashMap<Future<T>, String>();
+        this.deadlines = new HashMap<Future<T>, Long>();
+        this.status = new LinkedHashMap<String, DomainStatus>();
+        this.errors = new HashMap<String, Throwable>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Submits the task of the given domain. If the executor is saturated the task is rejected and the domain is marked
+     * as {@link DomainStatus#FAILED}, the task is never run by the current thread.
+     *
+     * @param  domain  the domain
+     * @param  task    the task querying the domain
+     */
+    void submit(final String domain, final Callable<T> task) {
+        try {
+            final long deadline = System.nanoTime() + timeoutNanos;
+            final Future<T> future = completionService.submit(task);
+            pending.put(future, domain);
+            deadlines.put(future, deadline);
+            status.put(domain, null);
+        } catch (final RejectedExecutionException e) {
+            LOG.error("search executor rejected task of domain: " + domain, e); // NOI18N
+            status.put(domain, DomainStatus.FAILED);
+            errors.put(domain, e);
+        }
+    }
+
+    /**
+     * Waits for the submitted tasks until they completed or their deadline passed.
+     *
+     * @return  the results of the domains that completed successfully, in the order of their completion
+     *
+     * @throws  InterruptedException  if the current thread is interrupted, all pending tasks are cancelled then
+     */
+    Map<String, T> await() throws InterruptedException {
+        return await(null);
+    }
+
+    /**
+     * Waits for the submitted tasks until they completed, their deadline passed or the given condition is satisfied.
+     * As soon as the condition is satisfied the pending tasks are cancelled and reported as
+     * {@link DomainStatus#CANCELLED}.
+     *
+     * @param   condition  the condition that ends the search early or <code>null</code> to wait for every domain
+     *
+     * @return  the results of the domains that completed successfully, in the order of their completion
+     *
+     * @throws  InterruptedException  if the current thread is interrupted, all pending tasks are cancelled then
+     */
+    Map<String, T> await(final StopCondition<T> condition) throws InterruptedException {
+        final Map<String, T> results = new LinkedHashMap<String, T>();
+        try {
+            while (!pending.isEmpty()) {
+                if ((condition != null) && condition.isSatisfied(results)) {
+                    for (final Map.Entry<Future<T>, String> entry : pending.entrySet()) {
+                        entry.getKey().cancel(true);
+                        status.put(entry.getValue(), DomainStatus.CANCELLED);
+                    }
+                    pending.clear();
+
+                    break;
+                }
+
+                final long now = System.nanoTime();
+                long nextDeadline = Long.MAX_VALUE;
+
+                final Iterator<Map.Entry<Future<T>, String>> it = pending.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<Future<T>, String> entry = it.next();
+                    final long deadline = deadlines.get(entry.getKey());
+                    if ((deadline - now) <= 0) {
+                        entry.getKey().cancel(true);
+                        status.put(entry.getValue(), DomainStatus.TIMED_OUT);
+                        LOG.warn("domain did not deliver its result in time, query cancelled: " // NOI18N
+                                    + entry.getValue());
+                        it.remove();
+                    } else {
+                        nextDeadline = Math.min(nextDeadline, deadline);
+                    }
+                }
+
+                if (!pending.isEmpty()) {
+                    final Future<T> future = completionService.poll(nextDeadline - now, TimeUnit.NANOSECONDS);
+                    if (future != null) {
+                        collect(future, results);
+                    }
+                }
+            }
+        } finally {
+            for (final Future<T> future : pending.keySet()) {
+                future.cancel(true);
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Collects the result of the given completed future.
+     *
+     * @param  future   the completed future
+     * @param  results  the results collected so far
+     */
+    private void collect(final Future<T> future, final Map<String, T> results) {
+        final String domain = pending.remove(future);
+        if (domain == null) {
+            // already timed out
+            return;
+        }
+
+        try {
+            results.put(domain, future.get());
+            status.put(domain, DomainStatus.OK);
+        } catch (final CancellationException e) {
+            status.put(domain, DomainStatus.TIMED_OUT);
+        } catch (final ExecutionException e) {
+            LOG.error("query of domain failed: " + domain, e.getCause()); // NOI18N
+            status.put(domain, DomainStatus.FAILED);
+            errors.put(domain, e.getCause());
+        } catch (final InterruptedException e) {
+            // cannot happen since the future is done
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Provides the status of every submitted domain. Domains that are still pending are mapped to <code>null</code>.
+     *
+     * @return  the status per domain in the order of submission
+     */
+    Map<String, DomainStatus> getStatus() {
+        return status;
+    }
+
+    /**
+     * Provides the error of a failed domain.
+     *
+     * @param   domain  the domain
+     *
+     * @return  the error or <code>null</code> if the domain did not fail
+     */
+    Throwable getError(final String domain) {
+        return errors.get(domain);
+    }
+
+    //~ Inner Interfaces -------------------------------------------------------
+
+    /**
+     * Decides whether a search already has all the results it needs.
+     *
+     * @param    <T>  the type of the per domain result
+     *
+     * @version  $Revision$, $Date$
+     */
+    interface StopCondition<T> {
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * Checks the results that were collected so far.
+         *
+         * @param   results  the results of the domains that completed successfully
+         *
+         * @return  <code>true</code> if the pending domains are not needed anymore
+         */
+        boolean isSatisfied(Map<String, T> results);
+    }
+}
@@ -0,0 +1,36 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * The outcome of the part of a search that was executed against a single domain.
+ *
+ * @version  $Revision$, $Date$
+ */
+public enum DomainStatus {
+
+    //~ Enum constants ---------------------------------------------------------
+
+    /** The domain delivered its complete result. */
+    OK,
+
+    /** The domain delivered a result but some of its objects had to be left out. */
+    PARTIAL,
+
+    /** The domain was not queried because it does not support the search. */
+    SKIPPED,
+
+    /** The domain did not deliver its result in time and the query was cancelled. */
+    TIMED_OUT,
+
+    /** The query of the domain was cancelled because the search already had all the results it needed. */
+    CANCELLED,
+
+    /** The query of the domain failed. */
+    FAILED
+}
@@ -0,0 +1,120 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+/**
+ * A compact, read-only view of an emission database as delivered by the projection mode of the
+ * {@link EmissionDatabaseSearch}. Depending on the {@link GeometryProjection} it carries the geometry as well-known
+ * binary, its bounding box or no geometry at all.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class EmissionDatabaseInfo implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = -1964237107318521771L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final int id;
+    private final String name;
+    private final String description;
+    private final int srid;
+    private final byte[] wkb;
+    private final double[] bbox;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new EmissionDatabaseInfo object.
+     *
+     * @param  id           the id of the emission database
+     * @param  name         the name
+     * @param  description  the description
+     * @param  srid         the SRID of the geometry or <code>0</code> if there is no geometry
+     * @param  wkb          the geometry as well-known binary or <code>null</code>
+     * @param  bbox         the bounding box as minx, miny, maxx, maxy or <code>null</code>
+     */
+    EmissionDatabaseInfo(final int id,
+            final String name,
+            final String description,
+            final int srid,
+            final byte[] wkb,
+            final double[] bbox) {
+        this.id = id;
+        this.name = name;
+        this.description = description;
+        this.srid = srid;
+        this.wkb = wkb;
+        this.bbox = bbox;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The id of the emission database.
+     *
+     * @return  the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The name of the emission database.
+     *
+     * @return  the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The description of the emission database.
+     *
+     * @return  the description
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * The SRID of the geometry.
+     *
+     * @return  the SRID or <code>0</code> if no geometry was delivered
+     */
+    public int getSrid() {
+        return srid;
+    }
+
+    /**
+     * The geometry as well-known binary, e.g. to be read with a JTS <code>WKBReader</code>.
+     *
+     * @return  a copy of the well-known binary or <code>null</code> if the geometry was not delivered as such
+     */
+    public byte[] getWkb() {
+        return (wkb == null) ? null : wkb.clone();
+    }
+
+    /**
+     * The bounding box of the geometry.
+     *
+     * @return  a copy of minx, miny, maxx and maxy or <code>null</code> if the bounding box was not delivered
+     */
+    public double[] getBoundingBox() {
+        return (bbox == null) ? null : bbox.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "emission database " + id + ": " + name; // NOI18N
+    }
+}
@@ -14,13 +14,20 @@ import Sirius.server.middleware.types.MetaObject;
 import org.apache.log4j.Logger;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
 
 import de.cismet.cids.server.search.AbstractCidsServerSearch;
 
 /**
- * Provides all uploaded emission databases with name, description and geometry.
+ * Provides all uploaded emission databases with name, description and geometry. If a page size is set the emission
+ * databases are delivered in pages ordered by their id, see {@link SearchPage}. If a geometry projection is set the
+ * search delivers compact {@link EmissionDatabaseInfo} rows built straight from the query result instead of
+ * MetaObjects. A bounding box or geometry filter restricts the result to the emission databases intersecting it, the
+ * filter is evaluated by the database using the spatial index of the geometries.
  *
  * @version  $Revision$, $Date$
  */
@@ -31,14 +38,219 @@ public final class EmissionDatabaseSearch extends AbstractCidsServerSearch {
     /** LOGGER. */
     private static final transient Logger LOG = Logger.getLogger(EmissionDatabaseSearch.class);
 
-    private static final String DOMAIN = "SUDPLAN";                                                 // NOI18N
-    private static final String CIDSCLASS = "emission_database";                                    // NOI18N
+    /** the prefix of the names of the metrics of this search. */
+    private static final String METRICS_PREFIX = "emissiondb."; // NOI18N
+
+    static final String DOMAIN = "SUDPLAN";                                                         // NOI18N
+    static final String CIDSCLASS = "emission_database";                                            // NOI18N
     private static final String QUERY = "SELECT id, name, description, geometry FROM " + CIDSCLASS; // NOI18N
+    private static final String QUERY_IDS = "SELECT id FROM " + CIDSCLASS;                            // NOI18N
+    private static final String QUERY_GEOM_FROM = " FROM " + CIDSCLASS                              // NOI18N
+                + " e LEFT OUTER JOIN geom g ON g.id = e.geometry";                                    // NOI18N
+    private static final String QUERY_SRID = "SELECT ST_SRID(g.geo_field)" + QUERY_GEOM_FROM          // NOI18N
+                + " WHERE g.geo_field IS NOT NULL LIMIT 1";                                            // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private int pageSize;
+    private SearchCursor cursor;
+    private GeometryProjection projection;
+    private double simplificationTolerance;
+    private double[] filterBox;
+    private String filterWkt;
+    private int filterSrid;
 
     //~ Methods ----------------------------------------------------------------
 
+    /**
+     * Getter for the maximum amount of emission databases per page.
+     *
+     * @return  the page size or <code>0</code> if all emission databases are delivered at once
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Setter for the maximum amount of emission databases per page. The result is a {@link SearchPage} then.
+     *
+     * @param   pageSize  the page size or <code>0</code> to deliver all emission databases at once
+     *
+     * @throws  IllegalArgumentException  if the page size is negative
+     */
+    public void setPageSize(final int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("pageSize must not be negative: " + pageSize); // NOI18N
+        }
+
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Getter for the position the page starts after.
+     *
+     * @return  the cursor or <code>null</code> if the first page is requested
+     */
+    public SearchCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Setter for the position the page starts after, usually the next cursor of the previous page.
+     *
+     * @param   cursor  the cursor or <code>null</code> to request the first page
+     *
+     * @throws  IllegalArgumentException  if the cursor does not belong to the domain of the emission databases
+     */
+    public void setCursor(final SearchCursor cursor) {
+        if ((cursor != null) && !DOMAIN.equals(cursor.getDomain())) {
+            throw new IllegalArgumentException("cursor of a foreign domain: " + cursor); // NOI18N
+        }
+
+        this.cursor = cursor;
+    }
+
+    /**
+     * Getter for the geometry projection.
+     *
+     * @return  the geometry projection or <code>null</code> if MetaObjects are delivered
+     */
+    public GeometryProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Setter for the geometry projection. If set the search delivers {@link EmissionDatabaseInfo} rows with the
+     * geometry as requested instead of MetaObjects.
+     *
+     * @param  projection  the geometry projection or <code>null</code> to deliver MetaObjects
+     */
+    public void setProjection(final GeometryProjection projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * Getter for the tolerance of {@link GeometryProjection#SIMPLIFIED_WKB}.
+     *
+     * @return  the tolerance in units of the spatial reference system of the geometries
+     */
+    public double getSimplificationTolerance() {
+        return simplificationTolerance;
+    }
+
+    /**
+     * Setter for the tolerance of {@link GeometryProjection#SIMPLIFIED_WKB}. The geometries are simplified with <code>
+     * ST_SimplifyPreserveTopology</code>, thus they stay valid.
+     *
+     * @param   simplificationTolerance  the tolerance in units of the spatial reference system of the geometries
+     *
+     * @throws  IllegalArgumentException  if the tolerance is negative, infinite or not a number
+     */
+    public void setSimplificationTolerance(final double simplificationTolerance) {
+        if (!(simplificationTolerance >= 0) || Double.isInfinite(simplificationTolerance)) {
+            throw new IllegalArgumentException("illegal simplificationTolerance: " // NOI18N
+                        + simplificationTolerance);
+        }
+
+        this.simplificationTolerance = simplificationTolerance;
+    }
+
+    /**
+     * Restricts the result to the emission databases whose geometry intersects the given bounding box, e.g. the current
+     * map extent. Replaces a previously set geometry filter.
+     *
+     * @param   minX  the minimum x coordinate
+     * @param   minY  the minimum y coordinate
+     * @param   maxX  the maximum x coordinate
+     * @param   maxY  the maximum y coordinate
+     * @param   srid  the SRID of the coordinates or <code>0</code> if they are in the spatial reference system of the
+     *                stored geometries
+     *
+     * @throws  IllegalArgumentException  if a coordinate is not finite or a minimum is greater than its maximum
+     */
+    public void setBoundingBoxFilter(final double minX,
+            final double minY,
+            final double maxX,
+            final double maxY,
+            final int srid) {
+        final double[] box = new double[] { minX, minY, maxX, maxY };
+        for (final double coordinate : box) {
+            if (Double.isNaN(coordinate) || Double.isInfinite(coordinate)) {
+                throw new IllegalArgumentException("coordinates must be finite: " + Arrays.toString(box)); // NOI18N
+            }
+        }
+        if ((minX > maxX) || (minY > maxY)) {
+            throw new IllegalArgumentException("minimum greater than maximum: " + Arrays.toString(box));  // NOI18N
+        }
+
+        this.filterBox = box;
+        this.filterWkt = null;
+        this.filterSrid = srid;
+    }
+
+    /**
+     * Restricts the result to the emission databases whose geometry intersects the given geometry. Replaces a
+     * previously set bounding box filter.
+     *
+     * @param   wkt   the geometry as well-known text
+     * @param   srid  the SRID of the geometry or <code>0</code> if it is in the spatial reference system of the stored
+     *                geometries
+     *
+     * @throws  IllegalArgumentException  if the well-known text is null or empty
+     */
+    public void setGeometryFilter(final String wkt, final int srid) {
+        if ((wkt == null) || wkt.trim().isEmpty()) {
+            throw new IllegalArgumentException("wkt must not be empty"); // NOI18N
+        }
+
+        this.filterBox = null;
+        this.filterWkt = wkt;
+        this.filterSrid = srid;
+    }
+
+    /**
+     * Removes the bounding box or geometry filter.
+     */
+    public void clearSpatialFilter() {
+        this.filterBox = null;
+        this.filterWkt = null;
+        this.filterSrid = 0;
+    }
+
+    /**
+     * Whether the result is restricted by a bounding box or geometry filter.
+     *
+     * @return  <code>true</code> if a spatial filter is set
+     */
+    public boolean isSpatiallyFiltered() {
+        return (filterBox != null) || (filterWkt != null);
+    }
+
     @Override
     public Collection performServerSearch() {
+        final Metrics metrics = Metrics.getInstance();
+        final long start = System.nanoTime();
+        Collection result = null;
+        try {
+            result = search();
+        } finally {
+            metrics.stop(METRICS_PREFIX + "search", start);              // NOI18N
+            if (result == null) {
+                metrics.increment(METRICS_PREFIX + "errors");            // NOI18N
+            } else {
+                metrics.add(METRICS_PREFIX + "results", result.size()); // NOI18N
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Performs the search.
+     *
+     * @return  the emission databases or <code>null</code> if the search failed
+     */
+    private Collection search() {
         final MetaService metaService = (MetaService)getActiveLocalServers().get(DOMAIN);
 
         if (metaService == null) {
@@ -46,18 +258,53 @@ public final class EmissionDatabaseSearch extends AbstractCidsServerSearch {
             return null;
         }
 
-        final int classId;
+        final MetaClass metaClass;
         try {
-            final MetaClass metaClass = metaService.getClassByTableName(getUser(), CIDSCLASS); // NOI18N
-            classId = metaClass.getID();
+            metaClass = MetaClassCache.getInstance().getClassByTableName(DOMAIN, metaService, getUser(), CIDSCLASS);
         } catch (final Exception ex) {
-            LOG.error("Can't fetch meta class. Aborting search.", ex);                         // NOI18N
+            LOG.error("Can't fetch meta class. Aborting search.", ex); // NOI18N
+            return null;
+        }
+
+        if (metaClass == null) {
+            LOG.error("Meta class not accessible. Aborting search."); // NOI18N
             return null;
         }
 
+        final String spatialPredicate;
+        try {
+            spatialPredicate = createSpatialPredicate(metaService);
+        } catch (final Exception e) {
+            LOG.error("Can't determine spatial reference system of emission databases. Aborting search.", e); // NOI18N
+            return null;
+        }
+
+        if (projection != null) {
+            return performProjection(metaService, spatialPredicate);
+        }
+
+        final boolean paged = pageSize > 0;
+        final String base;
+        final String idColumn;
+        if (spatialPredicate == null) {
+            base = paged ? QUERY_IDS : QUERY;
+            idColumn = "id";                                                            // NOI18N
+        } else {
+            base = "SELECT e.id" + QUERY_GEOM_FROM + " WHERE " + spatialPredicate;      // NOI18N
+            idColumn = "e.id";                                                          // NOI18N
+        }
+
+        final String query;
+        if (paged) {
+            final SearchCursor after = (cursor == null) ? SearchCursor.startOf(DOMAIN) : cursor;
+            query = after.restrict(base, spatialPredicate != null, pageSize, idColumn);
+        } else {
+            query = base;
+        }
+
         final int[] objectIds;
         try {
-            final ArrayList<ArrayList> results = metaService.performCustomSearch(QUERY);
+            final ArrayList<ArrayList> results = metaService.performCustomSearch(query);
             objectIds = new int[results.size()];
 
             for (int i = 0; i < results.size(); ++i) {
@@ -69,17 +316,208 @@ public final class EmissionDatabaseSearch extends AbstractCidsServerSearch {
             return null;
         }
 
-        final Collection<MetaObject> result = new LinkedList<MetaObject>();
+        // the query of a page delivers one more id than requested if there are more emission databases
+        final boolean more = paged && (objectIds.length > pageSize);
+        final List<MetaObject> result;
         try {
-            for (final int objectId : objectIds) {
-                final MetaObject metaObject = metaService.getMetaObject(getUser(), objectId, classId);
-                result.add(metaObject);
-            }
+            result = MetaObjectLoader.load(
+                    metaService,
+                    getUser(),
+                    metaClass,
+                    more ? Arrays.copyOf(objectIds, pageSize) : objectIds);
         } catch (final Exception e) {
             LOG.error("Can't create meta objects from found results. Aborting search.", e); // NOI18N
             return null;
         }
 
-        return result;
+        if (!paged) {
+            return result;
+        }
+
+        final SearchPage<MetaObject> page = new SearchPage<MetaObject>();
+        page.addAll(result);
+        page.setDomainStatus(DOMAIN, DomainStatus.OK);
+        if (more) {
+            page.setNextCursor(new SearchCursor(DOMAIN, objectIds[pageSize - 1]));
+        }
+
+        return page;
+    }
+
+    /**
+     * Delivers the emission databases as {@link EmissionDatabaseInfo} rows with the geometry as requested by the
+     * projection.
+     *
+     * @param   metaService       the MetaService of the domain
+     * @param   spatialPredicate  the spatial filter or <code>null</code>
+     *
+     * @return  the rows, a {@link SearchPage} if a page size is set, or <code>null</code> if the query failed
+     */
+    private Collection performProjection(final MetaService metaService, final String spatialPredicate) {
+        final StringBuilder sb = new StringBuilder("SELECT e.id, e.name, e.description");   // NOI18N
+        switch (projection) {
+            case WKB: {
+                // the WKB is delivered as hex text, so it does not depend on how the driver maps bytea
+                sb.append(", ST_SRID(g.geo_field), encode(ST_AsBinary(g.geo_field), 'hex')");  // NOI18N
+                break;
+            }
+            case SIMPLIFIED_WKB: {
+                sb.append(", ST_SRID(g.geo_field), encode(ST_AsBinary(")                      // NOI18N
+                        .append("ST_SimplifyPreserveTopology(g.geo_field, ")                   // NOI18N
+                        .append(simplificationTolerance)
+                        .append(")), 'hex')");                                                 // NOI18N
+                break;
+            }
+            case BBOX: {
+                sb.append(", ST_SRID(g.geo_field), ST_XMin(g.geo_field), ST_YMin(g.geo_field)") // NOI18N
+                        .append(", ST_XMax(g.geo_field), ST_YMax(g.geo_field)");                // NOI18N
+                break;
+            }
+            default: {
+                // no geometry
+            }
+        }
+        sb.append(QUERY_GEOM_FROM);
+        if (spatialPredicate != null) {
+            sb.append(" WHERE ").append(spatialPredicate);                                     // NOI18N
+        }
+
+        final boolean paged = pageSize > 0;
+        final String query;
+        if (paged) {
+            final SearchCursor after = (cursor == null) ? SearchCursor.startOf(DOMAIN) : cursor;
+            query = after.restrict(sb.toString(), spatialPredicate != null, pageSize, "e.id"); // NOI18N
+        } else {
+            query = sb.append(" ORDER BY e.id").toString();                                    // NOI18N
+        }
+
+        final ArrayList<ArrayList> rows;
+        try {
+            rows = metaService.performCustomSearch(query);
+        } catch (final Exception e) {
+            LOG.error("Can't fetch emission databases. Aborting search.", e);                  // NOI18N
+            return null;
+        }
+
+        // the query of a page delivers one more row than requested if there are more emission databases
+        final boolean more = paged && (rows.size() > pageSize);
+        final int count = more ? pageSize : rows.size();
+        final List<EmissionDatabaseInfo> infos = paged ? new SearchPage<EmissionDatabaseInfo>()
+                                                       : new ArrayList<EmissionDatabaseInfo>(count);
+        try {
+            for (int i = 0; i < count; ++i) {
+                infos.add(toInfo(rows.get(i)));
+            }
+        } catch (final IllegalArgumentException e) {
+            LOG.error("Can't convert the geometry of an emission database. Aborting search.", e); // NOI18N
+            return null;
+        }
+
+        if (paged) {
+            final SearchPage<EmissionDatabaseInfo> page = (SearchPage<EmissionDatabaseInfo>)infos;
+            page.setDomainStatus(DOMAIN, DomainStatus.OK);
+            if (more) {
+                page.setNextCursor(new SearchCursor(DOMAIN, infos.get(count - 1).getId()));
+            }
+        }
+
+        return infos;
+    }
+
+    /**
+     * Creates the SQL predicate of the spatial filter. The spatial reference system of the stored geometries is looked
+     * up first and the filter geometry is transformed to it, so the predicate compares the indexed column with a
+     * constant and the spatial index of <code>geom</code> can be used.
+     *
+     * @param   metaService  the MetaService of the domain
+     *
+     * @return  the predicate or <code>null</code> if there is no spatial filter
+     *
+     * @throws  Exception  if the spatial reference system of the stored geometries cannot be determined
+     */
+    private String createSpatialPredicate(final MetaService metaService) throws Exception {
+        if (!isSpatiallyFiltered()) {
+            return null;
+        }
+
+        final ArrayList<ArrayList> rows = metaService.performCustomSearch(QUERY_SRID);
+        if (rows.isEmpty()) {
+            // there is no geometry that could intersect
+            return "FALSE"; // NOI18N
+        }
+
+        final int storedSrid = ((Number)rows.get(0).get(0)).intValue();
+        final int srid = (filterSrid > 0) ? filterSrid : storedSrid;
+        String filter;
+        if (filterBox != null) {
+            filter = "ST_MakeEnvelope(" + filterBox[0] + ", " + filterBox[1] + ", " + filterBox[2] + ", " // NOI18N
+                        + filterBox[3] + ", " + srid + ")";                                           // NOI18N
+        } else {
+            filter = "ST_GeomFromText(" + SqlLiterals.quote(filterWkt) + ", " + srid + ")";            // NOI18N
+        }
+        if (srid != storedSrid) {
+            filter = "ST_Transform(" + filter + ", " + storedSrid + ")";                               // NOI18N
+        }
+
+        // && is answered by the index, ST_Intersects checks the exact geometries of the candidates
+        return "g.geo_field && " + filter + " AND ST_Intersects(g.geo_field, " + filter + ")";   // NOI18N
+    }
+
+    /**
+     * Converts a row of the projection query.
+     *
+     * @param   row  the row
+     *
+     * @return  the emission database info
+     */
+    private EmissionDatabaseInfo toInfo(final ArrayList row) {
+        final int id = ((Number)row.get(0)).intValue();
+        final String name = (String)row.get(1);
+        final String description = (String)row.get(2);
+        if ((GeometryProjection.NONE == projection) || (row.get(3) == null)) {
+            return new EmissionDatabaseInfo(id, name, description, 0, null, null);
+        }
+
+        final int srid = ((Number)row.get(3)).intValue();
+        if (GeometryProjection.BBOX == projection) {
+            final double[] bbox = new double[4];
+            for (int i = 0; i < bbox.length; ++i) {
+                bbox[i] = ((Number)row.get(4 + i)).doubleValue();
+            }
+
+            return new EmissionDatabaseInfo(id, name, description, srid, null, bbox);
+        } else {
+            return new EmissionDatabaseInfo(id, name, description, srid, toBytes(row.get(4)), null);
+        }
+    }
+
+    /**
+     * Converts the hex encoded WKB of the projection query to bytes. A byte array or a string in the bytea hex format
+     * of PostgreSQL is accepted, too.
+     *
+     * @param   value  the column value
+     *
+     * @return  the bytes or <code>null</code> if the value is <code>null</code>
+     *
+     * @throws  IllegalArgumentException  if the value is neither a byte array nor a hex string
+     */
+    private static byte[] toBytes(final Object value) {
+        if ((value == null) || (value instanceof byte[])) {
+            return (byte[])value;
+        } else if (value instanceof String) {
+            final String hex = (String)value;
+            final int offset = hex.startsWith("\\x") ? 2 : 0; // NOI18N
+            if (((hex.length() - offset) % 2) != 0) {
+                throw new IllegalArgumentException("odd length of hex geometry: " + hex.length()); // NOI18N
+            }
+            final byte[] bytes = new byte[(hex.length() - offset) / 2];
+            for (int i = 0; i < bytes.length; ++i) {
+                bytes[i] = (byte)Integer.parseInt(hex.substring(offset + (2 * i), offset + 2 + (2 * i)), 16);
+            }
+
+            return bytes;
+        } else {
+            throw new IllegalArgumentException("unexpected geometry value: " + value.getClass()); // NOI18N
+        }
     }
 }
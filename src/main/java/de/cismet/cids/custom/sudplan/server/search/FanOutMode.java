@@ -0,0 +1,24 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * Determines how many domains a search spanning several domains waits for.
+ *
+ * @version  $Revision$, $Date$
+ */
+public enum FanOutMode {
+
+    //~ Enum constants ---------------------------------------------------------
+
+    /** The search waits for every domain until its timeout. */
+    ALL,
+
+    /** The search returns as soon as the first domain delivered a hit, the other domains are cancelled. */
+    FIRST_HIT
+}
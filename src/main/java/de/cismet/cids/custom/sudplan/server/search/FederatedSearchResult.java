@@ -0,0 +1,91 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The result of a search spanning several domains. It is an ordinary list of the found objects so that callers that
+ * are only interested in the objects can treat it as before. Additionally it tells for each queried domain whether its
+ * part of the result is complete.
+ *
+ * @param    <E>  the type of the result elements
+ *
+ * @version  $Revision$, $Date$
+ */
+public class FederatedSearchResult<E> extends ArrayList<E> {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = 3174263985523411730L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final Map<String, DomainStatus> domainStatus;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new, empty FederatedSearchResult object.
+     */
+    public FederatedSearchResult() {
+        this.domainStatus = new LinkedHashMap<String, DomainStatus>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Records the status of the given domain.
+     *
+     * @param  domain  the domain
+     * @param  status  the status of the domain
+     */
+    public void setDomainStatus(final String domain, final DomainStatus status) {
+        domainStatus.put(domain, status);
+    }
+
+    /**
+     * Provides the status of the given domain.
+     *
+     * @param   domain  the domain
+     *
+     * @return  the status or <code>null</code> if the domain was not queried
+     */
+    public DomainStatus getDomainStatus(final String domain) {
+        return domainStatus.get(domain);
+    }
+
+    /**
+     * Provides the status of every queried domain.
+     *
+     * @return  an unmodifiable view of the status per domain
+     */
+    public Map<String, DomainStatus> getDomainStatus() {
+        return Collections.unmodifiableMap(domainStatus);
+    }
+
+    /**
+     * Whether every queried domain delivered its complete result. Skipped domains and domains that were cancelled
+     * because the search had enough results do not affect completeness.
+     *
+     * @return  <code>true</code> if no domain failed, timed out or delivered a partial result
+     */
+    public boolean isComplete() {
+        for (final DomainStatus status : domainStatus.values()) {
+            if ((DomainStatus.OK != status) && (DomainStatus.SKIPPED != status)
+                        && (DomainStatus.CANCELLED != status)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,372 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+import de.cismet.cids.server.search.AbstractCidsServerSearch;
+
+/**
+ * Searches the time series of all domains whose names match one of several terms, see {@link TimeSeriesMatchMode}.
+ * Unlike the {@link TimeSeriesSearch}, which delivers the raw rows per domain, the result is a flat
+ * {@link FederatedSearchResult} of {@link TimeSeriesHit}s without duplicates. The domains are queried concurrently and
+ * their hits are merged in the order the domains deliver. If a limit is set the search ends as soon as enough hits
+ * were merged and the queries of the domains that did not deliver yet are cancelled, their status is
+ * {@link DomainStatus#CANCELLED}. Such a result is complete, only failed or timed out domains count as errors.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class FederatedTimeSeriesSearch extends AbstractCidsServerSearch {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(FederatedTimeSeriesSearch.class);
+
+    /** the prefix of the names of the metrics of this search. */
+    private static final String METRICS_PREFIX = "timeseries.federated."; // NOI18N
+
+    private static final String QUERY = "SELECT id, name FROM timeseries WHERE "; // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final TimeSeriesMatchMode mode;
+    private final Set<String> terms;
+
+    private int limit;
+    private long domainTimeout;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new FederatedTimeSeriesSearch object for a single term.
+     *
+     * @param   mode  how the term is matched
+     * @param   term  the name, prefix or pattern
+     *
+     * @throws  NullPointerException      if the mode or the term is null
+     * @throws  IllegalArgumentException  if the term is empty
+     */
+    public FederatedTimeSeriesSearch(final TimeSeriesMatchMode mode, final String term) {
+        this(mode, Collections.singleton(term));
+    }
+
+    /**
+     * Creates a new FederatedTimeSeriesSearch object. A time series is found if its name matches any of the terms.
+     *
+     * @param   mode   how the terms are matched
+     * @param   terms  the names, prefixes or patterns
+     *
+     * @throws  NullPointerException      if the mode, the collection or one of the terms is null
+     * @throws  IllegalArgumentException  if the collection or one of the terms is empty
+     */
+    public FederatedTimeSeriesSearch(final TimeSeriesMatchMode mode, final Collection<String> terms) {
+        if (mode == null) {
+            throw new NullPointerException("mode must not be null"); // NOI18N
+        }
+        if (terms == null) {
+            throw new NullPointerException("terms must not be null"); // NOI18N
+        }
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException("terms must not be empty"); // NOI18N
+        }
+
+        this.mode = mode;
+        this.terms = new LinkedHashSet<String>(terms.size());
+        for (final String term : terms) {
+            if (term == null) {
+                throw new NullPointerException("term must not be null"); // NOI18N
+            }
+            if (term.isEmpty()) {
+                throw new IllegalArgumentException("term must not be empty"); // NOI18N
+            }
+
+            this.terms.add(term);
+        }
+
+        this.limit = 0;
+        this.domainTimeout = TimeUnit.MINUTES.toMillis(2);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Getter for the maximum amount of hits.
+     *
+     * @return  the limit, <code>0</code> if the result is not limited
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Setter for the maximum amount of hits. As the hits are merged in the order the domains deliver, a limited search
+     * is not deterministic: which hits are delivered depends on which domains answer first.
+     *
+     * @param   limit  the limit, <code>0</code> if the result shall not be limited
+     *
+     * @throws  IllegalArgumentException  if the limit is negative
+     */
+    public void setLimit(final int limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative: " + limit); // NOI18N
+        }
+
+        this.limit = limit;
+    }
+
+    /**
+     * Getter for the time in milliseconds every domain has to deliver its hits.
+     *
+     * @return  the timeout per domain in milliseconds
+     */
+    public long getDomainTimeout() {
+        return domainTimeout;
+    }
+
+    /**
+     * Setter for the time in milliseconds every domain has to deliver its hits.
+     *
+     * @param   domainTimeout  the timeout per domain in milliseconds
+     *
+     * @throws  IllegalArgumentException  if the timeout is not positive
+     */
+    public void setDomainTimeout(final long domainTimeout) {
+        if (domainTimeout < 1) {
+            throw new IllegalArgumentException("domainTimeout must be positive: " + domainTimeout); // NOI18N
+        }
+
+        this.domainTimeout = domainTimeout;
+    }
+
+    @Override
+    public Collection performServerSearch() {
+        final Metrics metrics = Metrics.getInstance();
+        final long start = System.nanoTime();
+        final Map<String, MetaService> mss = getActiveLocalServers();
+        final String query = createQuery();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("query: " + query); // NOI18N
+        }
+
+        final DomainFanOut<ArrayList<ArrayList>> fanOut = new DomainFanOut<ArrayList<ArrayList>>(
+                SearchExecutor.getInstance(),
+                domainTimeout,
+                TimeUnit.MILLISECONDS);
+        for (final String domain : mss.keySet()) {
+            final MetaService ms = mss.get(domain);
+
+            if (ms != null) {
+                fanOut.submit(domain, new Callable<ArrayList<ArrayList>>() {
+
+                        @Override
+                        public ArrayList<ArrayList> call() throws Exception {
+                            final long domainStart = System.nanoTime();
+                            try {
+                                return ms.performCustomSearch(query);
+                            } finally {
+                                Metrics.getInstance().stop(METRICS_PREFIX + "domain." + domain, domainStart); // NOI18N
+                            }
+                        }
+                    });
+            }
+        }
+
+        final HitMerger merger = new HitMerger(limit);
+        try {
+            // the merger consumes the rows of every domain as soon as it delivered, so the hits are merged while the
+            // other domains are still being queried. The fan-out does not ask the merger again after the last domain
+            // delivered, so its rows are merged here.
+            final Map<String, ArrayList<ArrayList>> results = fanOut.await(merger);
+            merger.merge(results);
+        } catch (final InterruptedException ex) {
+            final String message = "federated time series search was interrupted"; // NOI18N
+            LOG.error(message, ex);
+            Thread.currentThread().interrupt();
+            metrics.increment(METRICS_PREFIX + "errors");                           // NOI18N
+
+            throw new IllegalStateException(message, ex);
+        } finally {
+            metrics.stop(METRICS_PREFIX + "search", start);                         // NOI18N
+        }
+
+        final FederatedSearchResult<TimeSeriesHit> result = new FederatedSearchResult<TimeSeriesHit>();
+        result.addAll(merger.getHits());
+        // domains that were cancelled because the limit was reached are expected and are no error
+        boolean partial = false;
+        for (final Map.Entry<String, DomainStatus> entry : fanOut.getStatus().entrySet()) {
+            final DomainStatus status = entry.getValue();
+            result.setDomainStatus(entry.getKey(), status);
+            if (DomainStatus.FAILED == status) {
+                LOG.error(
+                    "federated time series search failed in domain " + entry.getKey(), // NOI18N
+                    fanOut.getError(entry.getKey()));
+            }
+            if ((DomainStatus.OK != status) && (DomainStatus.SKIPPED != status)
+                        && !((DomainStatus.CANCELLED == status) && merger.isFull())) {
+                partial = true;
+            }
+        }
+
+        if (partial) {
+            metrics.increment(METRICS_PREFIX + "errors");                                  // NOI18N
+            LOG.warn("federated time series search returns partial results: " + result.getDomainStatus()); // NOI18N
+        }
+        metrics.add(METRICS_PREFIX + "results", result.size());                            // NOI18N
+
+        return result;
+    }
+
+    /**
+     * Creates the query matching all terms. A limited search never needs more than <code>limit</code> rows of a
+     * single domain.
+     *
+     * @return  the query
+     */
+    private String createQuery() {
+        final StringBuilder sb = new StringBuilder(QUERY);
+        if (TimeSeriesMatchMode.EXACT == mode) {
+            sb.append("name IN (").append(SqlLiterals.inList(terms)).append(')'); // NOI18N
+        } else {
+            boolean first = true;
+            for (final String term : terms) {
+                if (!first) {
+                    sb.append(" OR ");                                             // NOI18N
+                }
+                first = false;
+
+                final String pattern = (TimeSeriesMatchMode.PREFIX == mode) ? (escapeLike(term) + "%") : term; // NOI18N
+                sb.append("name LIKE ").append(SqlLiterals.quote(pattern));        // NOI18N
+            }
+        }
+        sb.append(" ORDER BY id");                                                 // NOI18N
+        if (limit > 0) {
+            sb.append(" LIMIT ").append(limit);                                    // NOI18N
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Escapes the wildcard characters of <code>LIKE</code> so that the given text is matched literally.
+     *
+     * @param   text  the text
+     *
+     * @return  the escaped text
+     */
+    private static String escapeLike(final String text) {
+        final StringBuilder sb = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if ((c == '\\') || (c == '%') || (c == '_')) {
+                sb.append('\\');
+            }
+            sb.append(c);
+        }
+
+        return sb.toString();
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Merges the rows of the domains into hits as soon as a domain delivered and ends the search once the limit is
+     * reached. Every domain is merged only once, hits are deduplicated by domain and id.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class HitMerger implements DomainFanOut.StopCondition<ArrayList<ArrayList>> {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final int limit;
+        private final Set<String> merged;
+        private final LinkedHashMap<TimeSeriesHit, TimeSeriesHit> hits;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new HitMerger object.
+         *
+         * @param  limit  the maximum amount of hits, <code>0</code> for no limit
+         */
+        HitMerger(final int limit) {
+            this.limit = limit;
+            this.merged = new HashSet<String>();
+            this.hits = new LinkedHashMap<TimeSeriesHit, TimeSeriesHit>();
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public boolean isSatisfied(final Map<String, ArrayList<ArrayList>> results) {
+            merge(results);
+
+            return isFull();
+        }
+
+        /**
+         * Merges the rows of the domains that were not merged yet, up to the limit.
+         *
+         * @param  results  the rows per domain delivered so far
+         */
+        void merge(final Map<String, ArrayList<ArrayList>> results) {
+            for (final Map.Entry<String, ArrayList<ArrayList>> entry : results.entrySet()) {
+                if (merged.add(entry.getKey()) && (entry.getValue() != null)) {
+                    for (final ArrayList row : entry.getValue()) {
+                        if ((limit > 0) && (hits.size() >= limit)) {
+                            break;
+                        }
+
+                        final TimeSeriesHit hit = new TimeSeriesHit(
+                                entry.getKey(),
+                                ((Number)row.get(0)).intValue(),
+                                (String)row.get(1));
+                        if (!hits.containsKey(hit)) {
+                            hits.put(hit, hit);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Whether the limit is reached.
+         *
+         * @return  <code>true</code> if the search is limited and has enough hits
+         */
+        boolean isFull() {
+            return (limit > 0) && (hits.size() >= limit);
+        }
+
+        /**
+         * The merged hits in the order they were merged.
+         *
+         * @return  the hits
+         */
+        Collection<TimeSeriesHit> getHits() {
+            return hits.values();
+        }
+    }
+}
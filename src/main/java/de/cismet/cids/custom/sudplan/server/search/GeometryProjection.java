@@ -0,0 +1,30 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * Determines how the geometry is delivered by a search that returns compact rows instead of MetaObjects.
+ *
+ * @version  $Revision$, $Date$
+ */
+public enum GeometryProjection {
+
+    //~ Enum constants ---------------------------------------------------------
+
+    /** The geometry is not delivered at all. */
+    NONE,
+
+    /** The geometry is delivered as well-known binary. */
+    WKB,
+
+    /** The geometry is simplified by the database and delivered as well-known binary. */
+    SIMPLIFIED_WKB,
+
+    /** Only the bounding box of the geometry is delivered. */
+    BBOX
+}
@@ -0,0 +1,312 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.newuser.User;
+import Sirius.server.newuser.UserGroup;
+
+import java.rmi.RemoteException;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Gauge;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+/**
+ * Thread-safe cache for the <code>getClassByTableName</code> lookups of the server searches. As the visibility of a
+ * class depends on the permissions of the user, which cids grants to the user group, the entries are kept per domain,
+ * table name, user and user group. Thus the same login in another user group never gets a class resolved with the
+ * permissions of a different group. Entries expire after a configurable time (system property {@link #PROP_TTL} in
+ * milliseconds, default 1 hour) or when the <code>MetaService</code> of the domain changed. If the permissions of a
+ * user change, the entries of that user can be invalidated explicitly.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class MetaClassCache {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    public static final String PROP_TTL = "de.cismet.cids.custom.sudplan.server.search.metaclasses.ttl"; // NOI18N
+
+    private static final MetaClassCache INSTANCE = new MetaClassCache(Long.getLong(
+                PROP_TTL,
+                TimeUnit.HOURS.toMillis(1)));
+
+    static {
+        Metrics.getInstance().gauge("cache.metaclasses.hits", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getHitCount();
+                }
+            });
+        Metrics.getInstance().gauge("cache.metaclasses.misses", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getMissCount();
+                }
+            });
+    }
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long ttl;
+    private final ConcurrentHashMap<Key, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new MetaClassCache object.
+     *
+     * @param  ttl  the time to live of the entries in milliseconds
+     */
+    private MetaClassCache(final long ttl) {
+        this.ttl = ttl;
+        this.entries = new ConcurrentHashMap<Key, Entry>();
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide class cache.
+     *
+     * @return  the class cache
+     */
+    public static MetaClassCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Resolves the class of the given table for the given user, asking the <code>MetaService</code> only if there is
+     * no valid cache entry.
+     *
+     * @param   domain     the domain of the <code>MetaService</code>
+     * @param   ms         the <code>MetaService</code> of the domain
+     * @param   user       the user to resolve the class for
+     * @param   tableName  the table name of the class
+     *
+     * @return  the class as delivered by <code>getClassByTableName</code>
+     *
+     * @throws  RemoteException  if the lookup fails
+     */
+    public MetaClass getClassByTableName(final String domain,
+            final MetaService ms,
+            final User user,
+            final String tableName) throws RemoteException {
+        final Key key = new Key(domain, tableName, user);
+        final long now = System.currentTimeMillis();
+        final Entry cached = entries.get(key);
+
+        if ((cached != null) && (cached.ms == ms) && (cached.expires > now)) {
+            hits.incrementAndGet();
+
+            return cached.metaClass;
+        }
+
+        misses.incrementAndGet();
+        final MetaClass metaClass = ms.getClassByTableName(user, tableName);
+        // only successful lookups are cached so that a missing permission is detected again with the next call
+        if (metaClass != null) {
+            entries.put(key, new Entry(ms, metaClass, now + ttl));
+        }
+
+        return metaClass;
+    }
+
+    /**
+     * Discards all entries of the given user in any of its user groups, e.g. because the permissions of the user
+     * changed.
+     *
+     * @param  user  the user
+     */
+    public void invalidate(final User user) {
+        final String userKey = Key.userKey(user);
+        final Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (userKey.equals(it.next().user)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all entries of the given domain, e.g. because the permissions of the domain changed.
+     *
+     * @param  domain  the domain
+     */
+    public void invalidate(final String domain) {
+        final Iterator<Key> it = entries.keySet().iterator();
+        while (it.hasNext()) {
+            if (domain.equals(it.next().domain)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Discards all entries.
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * The amount of lookups that were served from the cache.
+     *
+     * @return  the amount of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The amount of lookups that had to ask the <code>MetaService</code>.
+     *
+     * @return  the amount of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Creates the key of the permissions of the given user, i.e. of the login and its user group. Caches of results
+     * that depend on the permissions of the user have to use this key.
+     *
+     * @param   user  the user
+     *
+     * @return  the key, the empty string for <code>null</code>
+     */
+    static String permissionKey(final User user) {
+        return (user == null) ? "" : (Key.userKey(user) + "/" + Key.groupKey(user)); // NOI18N
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * DOCUMENT ME!
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class Key {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final String domain;
+        private final String tableName;
+        private final String user;
+        private final String group;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new Key object.
+         *
+         * @param  domain     DOCUMENT ME!
+         * @param  tableName  DOCUMENT ME!
+         * @param  user       DOCUMENT ME!
+         */
+        Key(final String domain, final String tableName, final User user) {
+            this.domain = domain;
+            this.tableName = tableName.toLowerCase();
+            this.user = userKey(user);
+            this.group = groupKey(user);
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * Creates the key part of the given user.
+         *
+         * @param   user  the user
+         *
+         * @return  the key part
+         */
+        static String userKey(final User user) {
+            return (user == null) ? "" : (user.getName() + "@" + user.getDomain()); // NOI18N
+        }
+
+        /**
+         * Creates the key part of the user group of the given user. A user that is logged in without a particular
+         * group always has the same permissions and gets a key part of its own.
+         *
+         * @param   user  the user
+         *
+         * @return  the key part
+         */
+        static String groupKey(final User user) {
+            final UserGroup group = (user == null) ? null : user.getUserGroup();
+
+            return (group == null) ? "*" : (group.getName() + "@" + group.getDomain()); // NOI18N
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key other = (Key)o;
+
+            return domain.equals(other.domain) && tableName.equals(other.tableName) && user.equals(other.user)
+                        && group.equals(other.group);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 7;
+            hash = (53 * hash) + domain.hashCode();
+            hash = (53 * hash) + tableName.hashCode();
+            hash = (53 * hash) + user.hashCode();
+            hash = (53 * hash) + group.hashCode();
+
+            return hash;
+        }
+    }
+
+    /**
+     * DOCUMENT ME!
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class Entry {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final MetaService ms;
+        private final MetaClass metaClass;
+        private final long expires;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new Entry object.
+         *
+         * @param  ms         the service the class was resolved with
+         * @param  metaClass  the class
+         * @param  expires    the time in milliseconds the entry is valid until
+         */
+        Entry(final MetaService ms, final MetaClass metaClass, final long expires) {
+            this.ms = ms;
+            this.metaClass = metaClass;
+            this.expires = expires;
+        }
+    }
+}
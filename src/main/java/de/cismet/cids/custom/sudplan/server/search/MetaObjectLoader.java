@@ -0,0 +1,188 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.middleware.types.MetaObject;
+import Sirius.server.newuser.User;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materialises {@link MetaObject}s for a set of object ids using as few round trips as possible. The ids are split
+ * into chunks and every chunk is fetched with a single <code>getMetaObject(User, String)</code> call using an IN-list
+ * query. If such a bulk call fails or does not deliver every requested object the affected ids are fetched one by one
+ * as before.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class MetaObjectLoader {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(MetaObjectLoader.class);
+
+    /** the default amount of ids within a single IN-list. */
+    static final int DEFAULT_CHUNK_SIZE = 100;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Utility class.
+     */
+    private MetaObjectLoader() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Loads the {@link MetaObject}s of the given ids using chunks of {@link #DEFAULT_CHUNK_SIZE} ids.
+     *
+     * @param   ms         the <code>MetaService</code> to fetch the objects from
+     * @param   user       the user to fetch the objects for
+     * @param   metaClass  the class of the objects
+     * @param   objectIds  the ids of the objects
+     *
+     * @return  the objects in the order of the given ids
+     *
+     * @throws  Exception  if an object can neither be fetched in bulk nor individually
+     *
+     * @see     #load(MetaService, User, MetaClass, int[], int, int, int)
+     */
+    static List<MetaObject> load(final MetaService ms,
+            final User user,
+            final MetaClass metaClass,
+            final int[] objectIds) throws Exception {
+        return load(ms, user, metaClass, objectIds, 0, objectIds.length, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Loads the {@link MetaObject}s of the ids in the range <code>[from, to)</code> of the given id array. The range is
+     * split into IN-lists of at most <code>chunkSize</code> ids. The resulting list has the same order as the ids and
+     * contains exactly what the per id <code>getMetaObject(User, int, int)</code> calls would have delivered.
+     *
+     * @param   ms         the <code>MetaService</code> to fetch the objects from
+     * @param   user       the user to fetch the objects for
+     * @param   metaClass  the class of the objects
+     * @param   objectIds  the ids of the objects
+     * @param   from       the index of the first id to load (inclusive)
+     * @param   to         the index of the last id to load (exclusive)
+     * @param   chunkSize  the maximum amount of ids per bulk call
+     *
+     * @return  the objects in the order of the given ids
+     *
+     * @throws  Exception                 if an object can neither be fetched in bulk nor individually
+     * @throws  IllegalArgumentException  if the chunk size is not positive or the range is invalid
+     */
+    static List<MetaObject> load(final MetaService ms,
+            final User user,
+            final MetaClass metaClass,
+            final int[] objectIds,
+            final int from,
+            final int to,
+            final int chunkSize) throws Exception {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize); // NOI18N
+        }
+        if ((from < 0) || (to > objectIds.length) || (from > to)) {
+            throw new IllegalArgumentException("illegal range: [" + from + ", " + to + ")"); // NOI18N
+        }
+
+        final List<MetaObject> result = new ArrayList<MetaObject>(to - from);
+        for (int start = from; start < to; start += chunkSize) {
+            final int end = Math.min(start + chunkSize, to);
+            final Map<Integer, MetaObject> fetched = fetchChunk(ms, user, metaClass, objectIds, start, end);
+
+            for (int i = start; i < end; ++i) {
+                final MetaObject mo = fetched.get(objectIds[i]);
+                if (mo == null) {
+                    // not delivered by the bulk call, fall back to the single object call
+                    result.add(ms.getMetaObject(user, objectIds[i], metaClass.getID()));
+                } else {
+                    result.add(mo);
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Fetches the objects of the given id range with a single bulk call. If the bulk call fails an empty map is
+     * returned so that the caller falls back to the single object calls.
+     *
+     * @param   ms         the <code>MetaService</code> to fetch the objects from
+     * @param   user       the user to fetch the objects for
+     * @param   metaClass  the class of the objects
+     * @param   objectIds  the ids of the objects
+     * @param   start      the index of the first id of the chunk (inclusive)
+     * @param   end        the index of the last id of the chunk (exclusive)
+     *
+     * @return  the fetched objects by their id, never <code>null</code>
+     */
+    private static Map<Integer, MetaObject> fetchChunk(final MetaService ms,
+            final User user,
+            final MetaClass metaClass,
+            final int[] objectIds,
+            final int start,
+            final int end) {
+        final Map<Integer, MetaObject> fetched = new HashMap<Integer, MetaObject>(end - start);
+        try {
+            final MetaObject[] mos = ms.getMetaObject(user, createQuery(metaClass, objectIds, start, end));
+            if (mos != null) {
+                for (final MetaObject mo : mos) {
+                    if (mo != null) {
+                        fetched.put(mo.getID(), mo);
+                    }
+                }
+            }
+        } catch (final Exception e) {
+            LOG.warn("bulk fetch of " + (end - start) + " objects of class " + metaClass.getTableName() // NOI18N
+                        + " failed, falling back to single object fetch",                                // NOI18N
+                e);
+        }
+
+        return fetched;
+    }
+
+    /**
+     * Creates the <code>classid, objectid</code> query that is expected by <code>getMetaObject(User, String)</code>.
+     *
+     * @param   metaClass  the class of the objects
+     * @param   objectIds  the ids of the objects
+     * @param   start      the index of the first id of the chunk (inclusive)
+     * @param   end        the index of the last id of the chunk (exclusive)
+     *
+     * @return  the query
+     */
+    private static String createQuery(final MetaClass metaClass,
+            final int[] objectIds,
+            final int start,
+            final int end) {
+        final StringBuilder sb = new StringBuilder(64 + ((end - start) * 8));
+        sb.append("SELECT ").append(metaClass.getID()).append(", ").append(metaClass.getPrimaryKey()); // NOI18N
+        sb.append(" FROM ").append(metaClass.getTableName());                                          // NOI18N
+        sb.append(" WHERE ").append(metaClass.getPrimaryKey()).append(" IN (");                        // NOI18N
+        for (int i = start; i < end; ++i) {
+            if (i > start) {
+                sb.append(',');
+            }
+            sb.append(objectIds[i]);
+        }
+        sb.append(')');
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,231 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.middleware.types.MetaObject;
+import Sirius.server.newuser.User;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Materialises {@link MetaObject}s chunk-wise using up to <code>parallelism</code> threads. The calling thread takes
+ * part in the work itself and helper tasks only claim chunks that are still open. Thus the loader never waits for a
+ * helper that did not start yet and can safely be used with bounded executors that are also running the caller.
+ *
+ * @version  $Revision$, $Date$
+ * @see      MetaObjectLoader
+ */
+final class ParallelMetaObjectLoader {
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final Executor executor;
+    private final int parallelism;
+    private final int chunkSize;
+    private final ChunkFailurePolicy policy;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new ParallelMetaObjectLoader object.
+     *
+     * @param   executor     the executor used for the helper tasks
+     * @param   parallelism  the maximum amount of threads, including the caller, working on a single load
+     * @param   chunkSize    the amount of ids that are fetched together
+     * @param   policy       the reaction to a failing chunk
+     *
+     * @throws  IllegalArgumentException  if parallelism or chunkSize are not positive or executor or policy are null
+     */
+    ParallelMetaObjectLoader(final Executor executor,
+            final int parallelism,
+            final int chunkSize,
+            final ChunkFailurePolicy policy) {
+        if ((executor == null) || (policy == null)) {
+            throw new IllegalArgumentException("executor and policy must not be null"); // NOI18N
+        }
+        if ((parallelism < 1) || (chunkSize < 1)) {
+            throw new IllegalArgumentException("parallelism and chunkSize must be positive: " // NOI18N
+                        + parallelism + ", " + chunkSize); // NOI18N
+        }
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.policy = policy;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Loads the objects of the given ids. The result has the order of the ids. Chunks that fail are reported to the
+     * given failure list if the policy is {@link ChunkFailurePolicy#SKIP_CHUNK}.
+     *
+     * @param   ms         the <code>MetaService</code> to fetch the objects from
+     * @param   user       the user to fetch the objects for
+     * @param   metaClass  the class of the objects
+     * @param   objectIds  the ids of the objects
+     * @param   failures   receives the failed chunks
+     *
+     * @return  the loaded objects in the order of the given ids
+     *
+     * @throws  Exception  the exception of the first failing chunk if the policy is {@link ChunkFailurePolicy#ABORT}
+     *                     or an <code>InterruptedException</code> if the calling thread was interrupted
+     */
+    List<MetaObject> load(final MetaService ms,
+            final User user,
+            final MetaClass metaClass,
+            final int[] objectIds,
+            final List<ChunkFailure> failures) throws Exception {
+        final int chunks = (objectIds.length + chunkSize - 1) / chunkSize;
+        final AtomicReferenceArray<List<MetaObject>> results = new AtomicReferenceArray<List<MetaObject>>(chunks);
+        final AtomicReferenceArray<Exception> errors = new AtomicReferenceArray<Exception>(chunks);
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicBoolean aborted = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(chunks);
+
+        final Runnable worker = new Runnable() {
+
+                @Override
+                public void run() {
+                    int chunk;
+                    while ((chunk = next.getAndIncrement()) < chunks) {
+                        try {
+                            if (!aborted.get()) {
+                                final int from = chunk * chunkSize;
+                                final int to = Math.min(from + chunkSize, objectIds.length);
+                                results.set(
+                                    chunk,
+                                    MetaObjectLoader.load(ms, user, metaClass, objectIds, from, to, chunkSize));
+                            }
+                        } catch (final Exception e) {
+                            errors.set(chunk, e);
+                            if (ChunkFailurePolicy.ABORT == policy) {
+                                aborted.set(true);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }
+            };
+
+        final List<FutureTask<Object>> helpers = new ArrayList<FutureTask<Object>>();
+        for (int i = 1; i < Math.min(parallelism, chunks); ++i) {
+            final FutureTask<Object> helper = new FutureTask<Object>(worker, null);
+            try {
+                executor.execute(helper);
+                helpers.add(helper);
+            } catch (final RejectedExecutionException e) {
+                // the executor is saturated, the remaining chunks are processed by the threads that are already busy
+                break;
+            }
+        }
+
+        worker.run();
+
+        // all chunks are claimed now, helpers that did not start yet are not needed anymore
+        for (final FutureTask<Object> helper : helpers) {
+            helper.cancel(false);
+        }
+
+        try {
+            done.await();
+        } catch (final InterruptedException e) {
+            aborted.set(true);
+
+            throw e;
+        }
+
+        final List<MetaObject> loaded = new ArrayList<MetaObject>(objectIds.length);
+        for (int chunk = 0; chunk < chunks; ++chunk) {
+            final Exception error = errors.get(chunk);
+            if (error != null) {
+                if (ChunkFailurePolicy.ABORT == policy) {
+                    throw error;
+                }
+
+                final int from = chunk * chunkSize;
+                failures.add(new ChunkFailure(from, Math.min(from + chunkSize, objectIds.length), error));
+            } else if (results.get(chunk) != null) {
+                loaded.addAll(results.get(chunk));
+            }
+        }
+
+        return loaded;
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Describes a chunk of ids that could not be materialised.
+     *
+     * @version  $Revision$, $Date$
+     */
+    static final class ChunkFailure {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final int from;
+        private final int to;
+        private final Exception cause;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new ChunkFailure object.
+         *
+         * @param  from   the index of the first id of the chunk (inclusive)
+         * @param  to     the index of the last id of the chunk (exclusive)
+         * @param  cause  the reason of the failure
+         */
+        ChunkFailure(final int from, final int to, final Exception cause) {
+            this.from = from;
+            this.to = to;
+            this.cause = cause;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * DOCUMENT ME!
+         *
+         * @return  DOCUMENT ME!
+         */
+        int getFrom() {
+            return from;
+        }
+
+        /**
+         * DOCUMENT ME!
+         *
+         * @return  DOCUMENT ME!
+         */
+        int getTo() {
+            return to;
+        }
+
+        /**
+         * DOCUMENT ME!
+         *
+         * @return  DOCUMENT ME!
+         */
+        Exception getCause() {
+            return cause;
+        }
+    }
+}
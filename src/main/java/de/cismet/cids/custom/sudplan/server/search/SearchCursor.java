@@ -0,0 +1,159 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+/**
+ * The position of a paged search: the domain and the id of the last object that was delivered from it. The next page
+ * starts with the object of this domain with the next greater id (keyset paging), so it does not matter how many
+ * objects were delivered before and no object is skipped or delivered twice if objects are added or removed in the
+ * meantime. A cursor that retries a domain that failed also counts the failed attempts, so that the search can give up
+ * on the domain instead of returning the same cursor forever.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class SearchCursor implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = 6043209417520355312L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final int lastId;
+    private final int failures;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new SearchCursor object.
+     *
+     * @param   domain  the domain
+     * @param   lastId  the id of the last delivered object of the domain
+     *
+     * @throws  NullPointerException  if the domain is null
+     */
+    public SearchCursor(final String domain, final int lastId) {
+        this(domain, lastId, 0);
+    }
+
+    /**
+     * Creates a new SearchCursor object that retries the given position after it failed.
+     *
+     * @param   domain    the domain
+     * @param   lastId    the id of the last delivered object of the domain
+     * @param   failures  how often the page at this position failed
+     *
+     * @throws  NullPointerException  if the domain is null
+     */
+    SearchCursor(final String domain, final int lastId, final int failures) {
+        if (domain == null) {
+            throw new NullPointerException("domain must not be null"); // NOI18N
+        }
+
+        this.domain = domain;
+        this.lastId = lastId;
+        this.failures = failures;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates a cursor pointing before the first object of the given domain.
+     *
+     * @param   domain  the domain
+     *
+     * @return  the cursor
+     */
+    public static SearchCursor startOf(final String domain) {
+        return new SearchCursor(domain, Integer.MIN_VALUE);
+    }
+
+    /**
+     * The domain the next page starts in.
+     *
+     * @return  the domain
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * The id of the last delivered object of the domain, {@link Integer#MIN_VALUE} if no object of the domain was
+     * delivered yet.
+     *
+     * @return  the last delivered id
+     */
+    public int getLastId() {
+        return lastId;
+    }
+
+    /**
+     * How often the domain of this cursor failed to deliver the objects after this position.
+     *
+     * @return  the amount of failed attempts, <code>0</code> if the position was reached regularly
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Restricts the given id query to the objects after this cursor and to the given page size. The query must select
+     * the column <code>id</code> and must not be ordered or limited already. One more row than the page size is
+     * requested so that the caller can tell whether there are more objects.
+     *
+     * @param   idQuery   the query selecting the ids
+     * @param   hasWhere  whether the query has a where clause already
+     * @param   pageSize  the size of the page
+     *
+     * @return  the restricted query
+     */
+    String restrict(final String idQuery, final boolean hasWhere, final int pageSize) {
+        return restrict(idQuery, hasWhere, pageSize, "id"); // NOI18N
+    }
+
+    /**
+     * Restricts the given query to the objects after this cursor and to the given page size, like
+     * {@link #restrict(java.lang.String, boolean, int)} but for queries whose id column has to be qualified, e.g.
+     * because other tables are joined.
+     *
+     * @param   query     the query
+     * @param   hasWhere  whether the query has a where clause already
+     * @param   pageSize  the size of the page
+     * @param   idColumn  the (qualified) id column
+     *
+     * @return  the restricted query
+     */
+    String restrict(final String query, final boolean hasWhere, final int pageSize, final String idColumn) {
+        return query + (hasWhere ? " AND " : " WHERE ") + idColumn + " > " + lastId // NOI18N
+                    + " ORDER BY " + idColumn + " LIMIT " + (pageSize + 1);      // NOI18N
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof SearchCursor)) {
+            return false;
+        }
+
+        final SearchCursor other = (SearchCursor)obj;
+
+        return domain.equals(other.domain) && (lastId == other.lastId) && (failures == other.failures);
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * ((31 * domain.hashCode()) + lastId)) + failures;
+    }
+
+    @Override
+    public String toString() {
+        return domain + ":" + lastId + ((failures > 0) ? ("#" + failures) : ""); // NOI18N
+    }
+}
@@ -0,0 +1,446 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+import de.cismet.cids.custom.sudplan.server.metrics.Gauge;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+/**
+ * Server wide, bounded executor for the server searches of this module. It replaces the short-lived pools that were
+ * created per search. The executor is configured using system properties with the prefix {@link #PROP_PREFIX}:
+ *
+ * <ul>
+ *   <li><code>threads</code>: the maximum amount of worker threads, defaults to twice the amount of processors but at
+ *     least 4</li>
+ *   <li><code>queueSize</code>: the maximum amount of waiting tasks, defaults to 200</li>
+ *   <li><code>rejectionPolicy</code>: {@link RejectionPolicy#CALLER_RUNS} (default) or
+ *     {@link RejectionPolicy#ABORT}, the per domain tasks of a {@link DomainFanOut} are always aborted</li>
+ *   <li><code>virtualThreads</code>: if <code>true</code> and the runtime provides virtual threads (Java 21+) every
+ *     task gets its own virtual thread, the amount of tasks in flight is still limited to <code>threads +
+ *     queueSize</code></li>
+ * </ul>
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class SearchExecutor implements Executor {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(SearchExecutor.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.executor."; // NOI18N
+
+    //~ Enums ------------------------------------------------------------------
+
+    /**
+     * Determines what happens to a task if the executor is saturated.
+     *
+     * @version  $Revision$, $Date$
+     */
+    public enum RejectionPolicy {
+
+        //~ Enum constants -----------------------------------------------------
+
+        /** The task is executed by the submitting thread. */
+        CALLER_RUNS,
+
+        /** A {@link RejectedExecutionException} is thrown. */
+        ABORT
+    }
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final ExecutorService delegate;
+    private final RejectionPolicy rejectionPolicy;
+    private final Semaphore inFlight;
+    private final boolean virtual;
+    private final int threads;
+    private final int queueSize;
+
+    private final AtomicInteger active;
+    private final AtomicInteger queued;
+    private final AtomicLong completed;
+    private final AtomicLong rejected;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new SearchExecutor object.
+     *
+     * @param  threads          the maximum amount of worker threads
+     * @param  queueSize        the maximum amount of waiting tasks
+     * @param  rejectionPolicy  the policy for tasks that exceed the limits
+     * @param  useVirtual       whether virtual threads shall be used if available
+     */
+    private SearchExecutor(final int threads,
+            final int queueSize,
+            final RejectionPolicy rejectionPolicy,
+            final boolean useVirtual) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.rejectionPolicy = rejectionPolicy;
+        this.active = new AtomicInteger(0);
+        this.queued = new AtomicInteger(0);
+        this.completed = new AtomicLong(0);
+        this.rejected = new AtomicLong(0);
+
+        final ExecutorService virtualService = useVirtual ? createVirtualThreadExecutor() : null;
+        if (virtualService == null) {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(
+                    threads,
+                    threads,
+                    60,
+                    TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    SudplanConcurrency.createThreadFactory("sudplan-search"), // NOI18N
+                    new ThreadPoolExecutor.AbortPolicy());
+            // the executor lives as long as the server, so don't keep idle threads around
+            pool.allowCoreThreadTimeOut(true);
+
+            this.delegate = pool;
+            this.virtual = false;
+            this.inFlight = null;
+        } else {
+            this.delegate = virtualService;
+            this.virtual = true;
+            this.inFlight = new Semaphore(threads + queueSize);
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("created search executor: threads=" + threads + ", queueSize=" + queueSize // NOI18N
+                        + ", rejectionPolicy=" + rejectionPolicy + ", virtual=" + virtual);   // NOI18N
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide search executor.
+     *
+     * @return  the search executor
+     */
+    public static SearchExecutor getInstance() {
+        return LazyInitialiser.INSTANCE;
+    }
+
+    /**
+     * Creates a virtual thread per task executor if the runtime supports it.
+     *
+     * @return  the executor or <code>null</code> if virtual threads are not available
+     */
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null); // NOI18N
+        } catch (final Exception e) {
+            LOG.warn("virtual threads are not available, using platform threads", e);                          // NOI18N
+
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        execute(command, rejectionPolicy);
+    }
+
+    /**
+     * Executes the given task, applying the given policy instead of the configured one if the executor is saturated.
+     * Callers that must not run a task inline, e.g. because they enforce a deadline on it or the task waits for other
+     * tasks, use {@link RejectionPolicy#ABORT}.
+     *
+     * @param   command  the task
+     * @param   policy   the policy for the task if the executor is saturated
+     *
+     * @throws  NullPointerException        if the task is <code>null</code>
+     * @throws  RejectedExecutionException  if the executor is saturated and the policy is
+     *                                      {@link RejectionPolicy#ABORT}
+     */
+    public void execute(final Runnable command, final RejectionPolicy policy) {
+        if (command == null) {
+            throw new NullPointerException("command must not be null"); // NOI18N
+        }
+
+        final Runnable tracked = new TrackedTask(command);
+        queued.incrementAndGet();
+
+        boolean accepted = false;
+        if ((inFlight == null) || inFlight.tryAcquire()) {
+            try {
+                delegate.execute(tracked);
+                accepted = true;
+            } catch (final RejectedExecutionException e) {
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+            }
+        }
+
+        if (!accepted) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+
+            if (RejectionPolicy.CALLER_RUNS == policy) {
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("search executor saturated, running task in caller thread: " + command); // NOI18N
+                }
+
+                runTracked(command);
+            } else {
+                throw new RejectedExecutionException("search executor saturated: " + this); // NOI18N
+            }
+        }
+    }
+
+    /**
+     * The maximum amount of tasks that run at the same time.
+     *
+     * @return  the maximum amount of worker threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Submits the given task for execution.
+     *
+     * @param   <T>   the type of the result
+     * @param   task  the task
+     *
+     * @return  the future representing the task
+     *
+     * @throws  RejectedExecutionException  if the executor is saturated and the policy is
+     *                                      {@link RejectionPolicy#ABORT}
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+        final FutureTask<T> future = new FutureTask<T>(task);
+        execute(future);
+
+        return future;
+    }
+
+    /**
+     * Submits the given task for execution.
+     *
+     * @param   task  the task
+     *
+     * @return  the future representing the task
+     *
+     * @throws  RejectedExecutionException  if the executor is saturated and the policy is
+     *                                      {@link RejectionPolicy#ABORT}
+     */
+    public Future<?> submit(final Runnable task) {
+        final FutureTask<Object> future = new FutureTask<Object>(task, null);
+        execute(future);
+
+        return future;
+    }
+
+    /**
+     * Runs the given task in the current thread and records it in the metrics.
+     *
+     * @param  command  the task to run
+     */
+    private void runTracked(final Runnable command) {
+        active.incrementAndGet();
+        try {
+            command.run();
+        } finally {
+            active.decrementAndGet();
+            completed.incrementAndGet();
+        }
+    }
+
+    /**
+     * The amount of tasks that are currently executed.
+     *
+     * @return  the amount of active tasks
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * The amount of tasks that were accepted but did not start yet.
+     *
+     * @return  the amount of queued tasks
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * The amount of tasks that finished, normally or abnormally.
+     *
+     * @return  the amount of completed tasks
+     */
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    /**
+     * The amount of tasks that could not be handed to the worker threads, regardless of the rejection policy.
+     *
+     * @return  the amount of rejected tasks
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Whether the executor runs its tasks in virtual threads.
+     *
+     * @return  <code>true</code> if virtual threads are used
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchExecutor[threads=" + threads + ", queueSize=" + queueSize + ", virtual=" + virtual // NOI18N
+                    + ", active=" + getActiveCount() + ", queued=" + getQueuedCount()                    // NOI18N
+                    + ", completed=" + getCompletedCount() + ", rejected=" + getRejectedCount() + "]";   // NOI18N
+    }
+
+    /**
+     * Exposes the counts of the given executor as gauges of the {@link Metrics}.
+     *
+     * @param  executor  the executor
+     */
+    private static void registerGauges(final SearchExecutor executor) {
+        final Metrics metrics = Metrics.getInstance();
+        metrics.gauge("executor.active", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return executor.getActiveCount();
+                }
+            });
+        metrics.gauge("executor.queued", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return executor.getQueuedCount();
+                }
+            });
+        metrics.gauge("executor.completed", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return executor.getCompletedCount();
+                }
+            });
+        metrics.gauge("executor.rejected", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return executor.getRejectedCount();
+                }
+            });
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Keeps track of the task counters.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private final class TrackedTask implements Runnable {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final Runnable command;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new TrackedTask object.
+         *
+         * @param  command  the actual task
+         */
+        TrackedTask(final Runnable command) {
+            this.command = command;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                runTracked(command);
+            } finally {
+                if (inFlight != null) {
+                    inFlight.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * DOCUMENT ME!
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class LazyInitialiser {
+
+        //~ Static fields/initializers -----------------------------------------
+
+        private static final SearchExecutor INSTANCE;
+
+        static {
+            final int defaultThreads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            final int threads = Math.max(1, Integer.getInteger(PROP_PREFIX + "threads", defaultThreads)); // NOI18N
+            final int queueSize = Math.max(1, Integer.getInteger(PROP_PREFIX + "queueSize", 200));        // NOI18N
+
+            RejectionPolicy policy = RejectionPolicy.CALLER_RUNS;
+            final String policyName = System.getProperty(PROP_PREFIX + "rejectionPolicy"); // NOI18N
+            if (policyName != null) {
+                try {
+                    policy = RejectionPolicy.valueOf(policyName.trim().toUpperCase());
+                } catch (final IllegalArgumentException e) {
+                    LOG.warn("unknown rejection policy '" + policyName + "', using " + policy, e); // NOI18N
+                }
+            }
+
+            INSTANCE = new SearchExecutor(
+                    threads,
+                    queueSize,
+                    policy,
+                    Boolean.getBoolean(PROP_PREFIX + "virtualThreads")); // NOI18N
+            registerGauges(INSTANCE);
+        }
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new LazyInitialiser object.
+         */
+        private LazyInitialiser() {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * A single page of a paged search. The caller pulls the next page by passing {@link #getNextCursor()} to the next
+ * search until {@link #hasMore()} is <code>false</code>. A page may be empty although the previous one claimed that
+ * there are more objects, e.g. if the remaining objects were removed in the meantime. A page that ends at a domain
+ * that failed retries the domain with its next cursor, a search may give up on the domain after a few failed attempts
+ * and continue with the next one. The status of every queried domain tells which objects may be missing.
+ *
+ * @param    <E>  the type of the result elements
+ *
+ * @version  $Revision$, $Date$
+ */
+public class SearchPage<E> extends FederatedSearchResult<E> {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = -2231597437268318856L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private SearchCursor nextCursor;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The cursor to pull the next page with.
+     *
+     * @return  the position after this page or <code>null</code> if this is the last page
+     */
+    public SearchCursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Sets the cursor to pull the next page with.
+     *
+     * @param  nextCursor  the position after this page or <code>null</code> if this is the last page
+     */
+    public void setNextCursor(final SearchCursor nextCursor) {
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Whether there may be more objects after this page.
+     *
+     * @return  <code>true</code> if there is a next cursor
+     */
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+}
@@ -0,0 +1,111 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.util.Collection;
+
+/**
+ * Renders values as SQL literals for statements that have to be sent as plain text through <code>
+ * MetaService.performCustomSearch</code>, which does not support bind parameters. Strings are rendered as PostgreSQL
+ * escape string constants (<code>E'...'</code>) so that quotes and backslashes are escaped correctly regardless of
+ * the <code>standard_conforming_strings</code> setting of the server.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class SqlLiterals {
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Utility class.
+     */
+    private SqlLiterals() {
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Renders the given string as a string literal.
+     *
+     * @param   value  the value to render
+     *
+     * @return  the literal
+     *
+     * @throws  IllegalArgumentException  if the value is <code>null</code> or contains a NUL character which cannot be
+     *                                    part of a PostgreSQL string
+     */
+    static String quote(final String value) {
+        final StringBuilder sb = new StringBuilder(value == null ? 0 : (value.length() + 8));
+        appendQuoted(sb, value);
+
+        return sb.toString();
+    }
+
+    /**
+     * Renders the given strings as the comma separated content of an IN-list, i.e. without the parentheses.
+     *
+     * @param   values  the values to render
+     *
+     * @return  the content of the IN-list
+     *
+     * @throws  IllegalArgumentException  if the collection is empty or a value is invalid
+     *
+     * @see     #quote(java.lang.String)
+     */
+    static String inList(final Collection<String> values) {
+        if ((values == null) || values.isEmpty()) {
+            throw new IllegalArgumentException("an IN-list needs at least one value"); // NOI18N
+        }
+
+        final StringBuilder sb = new StringBuilder(values.size() * 24);
+        for (final String value : values) {
+            if (sb.length() > 0) {
+                sb.append(", ");                                                        // NOI18N
+            }
+            appendQuoted(sb, value);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends the given string as a string literal.
+     *
+     * @param   sb     the builder to append to
+     * @param   value  the value to render
+     *
+     * @throws  IllegalArgumentException  if the value is <code>null</code> or contains a NUL character
+     */
+    private static void appendQuoted(final StringBuilder sb, final String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("value must not be null"); // NOI18N
+        }
+
+        sb.append("E'");                                                  // NOI18N
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\'': {
+                    sb.append("''");                                      // NOI18N
+                    break;
+                }
+                case '\\': {
+                    sb.append("\\\\");                                    // NOI18N
+                    break;
+                }
+                case '\0': {
+                    throw new IllegalArgumentException("value must not contain NUL characters"); // NOI18N
+                }
+                default: {
+                    sb.append(c);
+                }
+            }
+        }
+        sb.append('\'');
+    }
+}
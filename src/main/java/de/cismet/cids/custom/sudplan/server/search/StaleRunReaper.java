@@ -0,0 +1,398 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.newuser.User;
+import Sirius.server.newuser.UserGroup;
+
+import org.apache.log4j.Logger;
+
+import java.sql.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+/**
+ * Marks runs that were started long ago but never finished, e.g. because the model execution crashed. Such runs would
+ * otherwise be delivered by every {@link UnfinishedRunSearchStatement} forever. A run is stale if it was started more
+ * than <code>maxAge</code> milliseconds ago (default 7 days), a pass never uses a smaller age. Stale runs are marked
+ * by the assignment <code>markAs</code>, a deployment whose run table has a status column should use e.g. <code>
+ * finished = now(), status = 'failed'</code>. The assignment has to set <code>finished</code>, otherwise the runs stay
+ * unfinished and are marked again by every pass. Without <code>markAs</code> the passes are not scheduled and a
+ * {@link StaleRunReaperSearch} marks the runs by <code>finished = now()</code>, which makes a crashed run look like a
+ * run that finished successfully, the reports name the assignment and such passes are logged as warning.<br/>
+ * <br/>
+ * The domains are processed one after the other and the stale runs of a domain are marked in bulk updates of
+ * <code>batchSize</code> runs (default 200) with a pause of <code>batchPause</code> milliseconds (default 500) between
+ * two updates, so a pass never puts much load on a domain. Domains that are not sudplan systems are skipped, using the
+ * same probe as the {@link UnfinishedRunSearchStatement}.<br/>
+ * <br/>
+ * Only a user with write permission on the run class of a domain may mark its runs, the permission is checked for the
+ * class only. Passes run every <code>interval</code> milliseconds (default 1 hour, <code>0</code> turns the schedule
+ * off) with the service user whose login name is <code>user</code> and, if set, whose group is <code>group</code>. The
+ * schedule starts as soon as the domains are known, i.e. after the service user ran the first
+ * {@link StaleRunReaperSearch}, searches of other users never change the scheduled passes. Without <code>user</code>
+ * the passes are not scheduled. All settings are system properties with the prefix {@link #PROP_PREFIX}.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class StaleRunReaper {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(StaleRunReaper.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.stalerunreaper."; // NOI18N
+
+    /** the prefix of the names of the metrics of the reaper. */
+    private static final String METRICS_PREFIX = "runs.reaper."; // NOI18N
+
+    private static final String STMT_STALE_RUNS = UnfinishedRunSearchStatement.STMT_SEARCH_UNFINISHED_RUNS
+                + " AND started < %1$s";                                                          // NOI18N
+    private static final String STMT_MARK_RUNS =
+        "UPDATE run SET %1$s WHERE finished IS NULL AND started < %2$s AND id IN (%3$s)";         // NOI18N
+
+    /** the assignment of a manual pass if none is configured, the runs look successfully finished then. */
+    private static final String DEFAULT_ASSIGNMENT = "finished = now()"; // NOI18N
+
+    private static final String RUN_CLASS = "run"; // NOI18N
+
+    private static final StaleRunReaper INSTANCE = new StaleRunReaper(
+            Long.getLong(PROP_PREFIX + "maxAge", TimeUnit.DAYS.toMillis(7)),                      // NOI18N
+            Long.getLong(PROP_PREFIX + "interval", TimeUnit.HOURS.toMillis(1)),                   // NOI18N
+            Integer.getInteger(PROP_PREFIX + "batchSize", 200),                                   // NOI18N
+            Long.getLong(PROP_PREFIX + "batchPause", 500),                                        // NOI18N
+            System.getProperty(PROP_PREFIX + "markAs"),                                           // NOI18N
+            System.getProperty(PROP_PREFIX + "user"),                                             // NOI18N
+            System.getProperty(PROP_PREFIX + "group"));                                           // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long maxAge;
+    private final long interval;
+    private final int batchSize;
+    private final long batchPause;
+    private final String assignment;
+    private final String serviceUser;
+    private final String serviceGroup;
+    private final Object passLock;
+
+    private volatile Map<String, MetaService> domains;
+    private volatile User user;
+    private ScheduledExecutorService scheduler;
+    private boolean refusalLogged;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new StaleRunReaper object.
+     *
+     * @param  maxAge      the age in milliseconds a run must exceed to be stale
+     * @param  interval    the interval of the passes in milliseconds, not positive to turn the schedule off
+     * @param  batchSize   the maximum amount of runs per bulk update
+     * @param  batchPause    the pause between two bulk updates of a domain in milliseconds
+     * @param  assignment    the SQL assignment marking a stale run or <code>null</code> if none is configured
+     * @param  serviceUser   the login name of the user of the scheduled passes or <code>null</code> if none is
+     *                       configured
+     * @param  serviceGroup  the group of the user of the scheduled passes or <code>null</code> for any group
+     */
+    private StaleRunReaper(final long maxAge,
+            final long interval,
+            final int batchSize,
+            final long batchPause,
+            final String assignment,
+            final String serviceUser,
+            final String serviceGroup) {
+        this.maxAge = Math.max(1, maxAge);
+        this.interval = interval;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchPause = Math.max(0, batchPause);
+        this.assignment = ((assignment == null) || assignment.trim().isEmpty()) ? null : assignment;
+        this.serviceUser = serviceUser;
+        this.serviceGroup = serviceGroup;
+        this.passLock = new Object();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide stale run reaper.
+     *
+     * @return  the stale run reaper
+     */
+    public static StaleRunReaper getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The configured age in milliseconds a run must exceed to be stale.
+     *
+     * @return  the maximum age of an unfinished run
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Whether the domains are known and the passes are scheduled.
+     *
+     * @return  <code>true</code> if passes run periodically
+     */
+    public synchronized boolean isScheduled() {
+        return scheduler != null;
+    }
+
+    /**
+     * Registers the domains the scheduled passes process if the given user is the configured service user, who then
+     * marks the runs. The first registration starts the schedule unless it is turned off or no assignment is
+     * configured. Registrations of other users are ignored.
+     *
+     * @param  localServers  the <code>MetaService</code> per domain
+     * @param  user          the user of the search that registers the domains
+     */
+    synchronized void register(final Map<String, MetaService> localServers, final User user) {
+        if (interval <= 0) {
+            return;
+        }
+        if ((serviceUser == null) || (assignment == null)) {
+            if (!refusalLogged) {
+                LOG.warn("stale run reaper is not scheduled since " + PROP_PREFIX // NOI18N
+                            + ((serviceUser == null) ? "user" : "markAs") + " is not set"); // NOI18N
+                refusalLogged = true;
+            }
+
+            return;
+        }
+        if (!isServiceUser(user)) {
+            return;
+        }
+
+        this.domains = Collections.unmodifiableMap(new HashMap<String, MetaService>(localServers));
+        this.user = user;
+
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    SudplanConcurrency.createThreadFactory("sudplan-stale-run-reaper")); // NOI18N
+            scheduler.scheduleWithFixedDelay(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        try {
+                            final FederatedSearchResult<StaleRunReport> result = reap(
+                                    domains,
+                                    StaleRunReaper.this.user,
+                                    maxAge);
+                            if (LOG.isInfoEnabled()) {
+                                for (final StaleRunReport report : result) {
+                                    LOG.info(report);
+                                }
+                            }
+                        } catch (final RuntimeException ex) {
+                            LOG.error("scheduled stale run reaping failed", ex); // NOI18N
+                        }
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+
+            if (LOG.isInfoEnabled()) {
+                LOG.info("stale run reaper scheduled every " + interval + " ms, max age " + maxAge + " ms"); // NOI18N
+            }
+        }
+    }
+
+    /**
+     * Whether the given user is the configured service user of the scheduled passes.
+     *
+     * @param   user  the user
+     *
+     * @return  <code>true</code> if the login name and, if configured, the group match
+     */
+    private boolean isServiceUser(final User user) {
+        if ((serviceUser == null) || (user == null) || !serviceUser.equals(user.getName())) {
+            return false;
+        }
+        if (serviceGroup == null) {
+            return true;
+        }
+
+        final UserGroup group = user.getUserGroup();
+
+        return (group != null) && serviceGroup.equals(group.getName());
+    }
+
+    /**
+     * Marks the stale runs of the given domains with the configured assignment or, if none is configured, by setting
+     * <code>finished</code>. Passes never overlap, a pass waits for the pass in progress. Domains in which the user
+     * has no write permission on the run class are reported as {@link DomainStatus#FAILED}.
+     *
+     * @param   localServers  the <code>MetaService</code> per domain
+     * @param   user          the user to perform the updates with
+     * @param   age           the age in milliseconds a run must exceed to be stale, the configured age if it is
+     *                        smaller
+     *
+     * @return  a report per processed domain and the status of every domain
+     */
+    FederatedSearchResult<StaleRunReport> reap(final Map<String, MetaService> localServers,
+            final User user,
+            final long age) {
+        final FederatedSearchResult<StaleRunReport> result = new FederatedSearchResult<StaleRunReport>();
+        final Timestamp cutoff = new Timestamp(System.currentTimeMillis() - Math.max(age, maxAge));
+        final String literal = SqlLiterals.quote(cutoff.toString());
+        final String markAs = (assignment == null) ? DEFAULT_ASSIGNMENT : assignment;
+
+        synchronized (passLock) {
+            final Metrics metrics = Metrics.getInstance();
+            final long start = System.nanoTime();
+            int reaped = 0;
+            boolean interrupted = false;
+            // sorted so that the domains are processed in a stable order
+            for (final Map.Entry<String, MetaService> entry : new TreeMap<String, MetaService>(localServers)
+                        .entrySet()) {
+                final String domain = entry.getKey();
+                final MetaService ms = entry.getValue();
+                if (interrupted) {
+                    result.setDomainStatus(domain, DomainStatus.CANCELLED);
+                    continue;
+                }
+                if (ms == null) {
+                    result.setDomainStatus(domain, DomainStatus.SKIPPED);
+                    continue;
+                }
+
+                final StaleRunReport report = new StaleRunReport(domain, cutoff, markAs);
+                final long domainStart = System.currentTimeMillis();
+                try {
+                    if (!DomainCapabilityCache.getInstance().isCapable(
+                                    domain,
+                                    ms,
+                                    UnfinishedRunSearchStatement.STMT_TEST_SUDPLAN_SYSTEM)) {
+                        result.setDomainStatus(domain, DomainStatus.SKIPPED);
+                        continue;
+                    }
+                    if (isPermitted(domain, ms, user)) {
+                        reap(domain, ms, user, literal, markAs, report);
+                        result.setDomainStatus(domain, DomainStatus.OK);
+                    } else {
+                        LOG.error("user " + user + " is not allowed to mark stale runs in domain " + domain); // NOI18N
+                        report.setPermissionDenied();
+                        result.setDomainStatus(domain, DomainStatus.FAILED);
+                    }
+                } catch (final InterruptedException ex) {
+                    LOG.warn("stale run reaping was interrupted in domain " + domain); // NOI18N
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                    result.setDomainStatus(domain, DomainStatus.CANCELLED);
+                } catch (final Exception ex) {
+                    LOG.error("cannot reap stale runs in domain " + domain, ex);       // NOI18N
+                    metrics.increment(METRICS_PREFIX + "errors");                     // NOI18N
+                    result.setDomainStatus(domain, (report.getReapedCount() > 0) ? DomainStatus.PARTIAL
+                                                                                   : DomainStatus.FAILED);
+                }
+                report.setDuration(System.currentTimeMillis() - domainStart);
+                reaped += report.getReapedCount();
+                result.add(report);
+            }
+            metrics.stop(METRICS_PREFIX + "pass", start); // NOI18N
+
+            if (reaped > 0) {
+                // the runs were changed by plain updates, no trigger tells the cache about them
+                UnfinishedRunCache.getInstance().invalidateAll();
+                if (assignment == null) {
+                    LOG.warn(reaped + " stale runs were marked by '" + DEFAULT_ASSIGNMENT          // NOI18N
+                                + "' and cannot be told apart from successfully finished runs, set " // NOI18N
+                                + PROP_PREFIX + "markAs to mark them as failed");                   // NOI18N
+                }
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the user may mark runs, i.e. whether it has write permission on the run class of the domain.
+     *
+     * @param   domain  the domain
+     * @param   ms      the <code>MetaService</code> of the domain
+     * @param   user    the user
+     *
+     * @return  <code>true</code> if the user may change runs
+     *
+     * @throws  Exception  if the run class cannot be resolved
+     */
+    private static boolean isPermitted(final String domain, final MetaService ms, final User user) throws Exception {
+        final MetaClass metaClass = MetaClassCache.getInstance().getClassByTableName(domain, ms, user, RUN_CLASS);
+
+        return (metaClass != null) && (metaClass.getPermissions() != null)
+                    && metaClass.getPermissions().hasWritePermission(user);
+    }
+
+    /**
+     * Marks the stale runs of a single domain in bulk updates. The stale runs are walked by id so that runs whose
+     * mark does not remove them from the stale runs are not updated twice within a pass.
+     *
+     * @param   domain   the domain
+     * @param   ms       the <code>MetaService</code> of the domain
+     * @param   user     the user to perform the updates with
+     * @param   literal  the cutoff as SQL literal
+     * @param   markAs   the SQL assignment marking a stale run
+     * @param   report   receives the amount of marked runs
+     *
+     * @throws  Exception  if a query or an update fails or the current thread is interrupted during a pause
+     */
+    private void reap(final String domain,
+            final MetaService ms,
+            final User user,
+            final String literal,
+            final String markAs,
+            final StaleRunReport report) throws Exception {
+        final String query = String.format(STMT_STALE_RUNS, literal);
+        SearchCursor cursor = SearchCursor.startOf(domain);
+        while (true) {
+            final ArrayList<ArrayList> rows = ms.performCustomSearch(cursor.restrict(query, true, batchSize));
+            if (rows.isEmpty()) {
+                return;
+            }
+
+            final int count = Math.min(rows.size(), batchSize);
+            final StringBuilder ids = new StringBuilder(count * 8);
+            int lastId = 0;
+            for (int i = 0; i < count; ++i) {
+                lastId = ((Number)rows.get(i).get(0)).intValue();
+                if (i > 0) {
+                    ids.append(',');
+                }
+                ids.append(lastId);
+            }
+
+            final int updated = ms.update(user, String.format(STMT_MARK_RUNS, markAs, literal, ids));
+            report.addBatch(updated);
+            Metrics.getInstance().add(METRICS_PREFIX + "reaped", updated); // NOI18N
+
+            // the query delivers one more run than the batch size if there are more stale runs
+            if (rows.size() <= batchSize) {
+                return;
+            }
+
+            cursor = new SearchCursor(domain, lastId);
+            if (batchPause > 0) {
+                Thread.sleep(batchPause);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+
+import de.cismet.cids.server.search.AbstractCidsServerSearch;
+
+/**
+ * Marks the stale runs of all domains right away, see {@link StaleRunReaper}. Only the domains in which the user has
+ * write permission on the run class are processed, the others are reported as {@link DomainStatus#FAILED}. If the user
+ * is the configured service user of the reaper the search also registers the domains with the reaper, so its first
+ * execution starts the periodic passes. The result contains a {@link StaleRunReport} per processed domain and the
+ * status of every domain.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class StaleRunReaperSearch extends AbstractCidsServerSearch {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(StaleRunReaperSearch.class);
+
+    //~ Instance fields --------------------------------------------------------
+
+    private long maxAge;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new StaleRunReaperSearch object using the configured maximum age of the reaper.
+     */
+    public StaleRunReaperSearch() {
+        this.maxAge = 0;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Getter for the age in milliseconds a run must exceed to be stale.
+     *
+     * @return  the maximum age of an unfinished run, <code>0</code> if the configured age of the reaper is used
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Setter for the age in milliseconds a run must exceed to be stale. It applies to this search only, the periodic
+     * passes keep using the configured age. An age below the configured age of the reaper is raised to it, so the
+     * search never marks runs younger than the configured age.
+     *
+     * @param   maxAge  the maximum age of an unfinished run, <code>0</code> to use the configured age of the reaper
+     *
+     * @throws  IllegalArgumentException  if the age is negative
+     */
+    public void setMaxAge(final long maxAge) {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must not be negative: " + maxAge); // NOI18N
+        }
+
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public Collection performServerSearch() {
+        final StaleRunReaper reaper = StaleRunReaper.getInstance();
+        final Map<String, MetaService> mss = getActiveLocalServers();
+        reaper.register(mss, getUser());
+
+        final FederatedSearchResult<StaleRunReport> result = reaper.reap(
+                mss,
+                getUser(),
+                Math.max(maxAge, reaper.getMaxAge()));
+        if (LOG.isInfoEnabled()) {
+            for (final StaleRunReport report : result) {
+                LOG.info(report);
+            }
+        }
+
+        return result;
+    }
+}
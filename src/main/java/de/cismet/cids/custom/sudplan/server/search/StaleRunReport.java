@@ -0,0 +1,153 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+import java.util.Date;
+
+/**
+ * The outcome of a pass of the {@link StaleRunReaper} in a single domain: how many stale runs were marked, how they
+ * were marked and which start time a run had to be older than to be considered stale.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class StaleRunReport implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = 7719056324478801163L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final Date cutoff;
+    private final String assignment;
+    private int reaped;
+    private int batches;
+    private long duration;
+    private boolean permissionDenied;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new StaleRunReport object.
+     *
+     * @param  domain      the domain
+     * @param  cutoff      the start time a run had to be older than
+     * @param  assignment  the SQL assignment the stale runs are marked with
+     */
+    StaleRunReport(final String domain, final Date cutoff, final String assignment) {
+        this.domain = domain;
+        this.cutoff = new Date(cutoff.getTime());
+        this.assignment = assignment;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The domain of the runs.
+     *
+     * @return  the domain
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * The start time a run had to be older than to be considered stale.
+     *
+     * @return  the cutoff
+     */
+    public Date getCutoff() {
+        return new Date(cutoff.getTime());
+    }
+
+    /**
+     * The SQL assignment the stale runs were marked with. If it only sets <code>finished</code> the marked runs cannot
+     * be told apart from runs that finished successfully.
+     *
+     * @return  the assignment
+     */
+    public String getAssignment() {
+        return assignment;
+    }
+
+    /**
+     * The amount of stale runs that were marked.
+     *
+     * @return  the amount of marked runs
+     */
+    public int getReapedCount() {
+        return reaped;
+    }
+
+    /**
+     * The amount of bulk updates that were needed.
+     *
+     * @return  the amount of batches
+     */
+    public int getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * The time the pass took in the domain.
+     *
+     * @return  the duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Whether the user is not allowed to change the runs of the domain, nothing was marked then.
+     *
+     * @return  <code>true</code> if the permission was denied
+     */
+    public boolean isPermissionDenied() {
+        return permissionDenied;
+    }
+
+    /**
+     * Records a bulk update.
+     *
+     * @param  updated  the amount of runs the update marked
+     */
+    void addBatch(final int updated) {
+        ++batches;
+        reaped += updated;
+    }
+
+    /**
+     * Records the duration of the pass.
+     *
+     * @param  duration  the duration in milliseconds
+     */
+    void setDuration(final long duration) {
+        this.duration = duration;
+    }
+
+    /**
+     * Records that the user is not allowed to change the runs.
+     */
+    void setPermissionDenied() {
+        this.permissionDenied = true;
+    }
+
+    @Override
+    public String toString() {
+        if (permissionDenied) {
+            return "stale runs of " + domain + ": permission denied"; // NOI18N
+        }
+
+        return "stale runs of " + domain + " started before " + cutoff + ": " + reaped  // NOI18N
+                    + " marked as '" + assignment + "' in " + batches + " batches, " // NOI18N
+                    + duration + " ms";                                              // NOI18N
+    }
+}
@@ -0,0 +1,270 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link TimeSeriesBulkDeletionSearch}: the ids of the deleted time series, the ids that were
+ * requested but do not exist, the reason for every time series that could not be deleted and the fate of the remote
+ * files of the deleted time series.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class TimeSeriesBulkDeletionReport implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = -5120393347170285546L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final List<Integer> deleted;
+    private final List<Integer> notFound;
+    private final Map<Integer, String> failures;
+    private final List<String> orphanedFiles;
+    private int matched;
+    private int deletedFiles;
+    private int queuedFiles;
+    private boolean permissionDenied;
+    private boolean interrupted;
+    private long duration;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TimeSeriesBulkDeletionReport object.
+     *
+     * @param  domain  the domain the time series were deleted in
+     */
+    TimeSeriesBulkDeletionReport(final String domain) {
+        this.domain = domain;
+        this.deleted = new ArrayList<Integer>();
+        this.notFound = new ArrayList<Integer>();
+        this.failures = new LinkedHashMap<Integer, String>();
+        this.orphanedFiles = new ArrayList<String>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The domain the time series were deleted in.
+     *
+     * @return  the domain
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * The amount of time series that matched the ids or the name pattern.
+     *
+     * @return  the amount of matching time series
+     */
+    public int getMatchedCount() {
+        return matched;
+    }
+
+    /**
+     * The ids of the deleted time series in the order of their deletion.
+     *
+     * @return  an unmodifiable view of the deleted ids
+     */
+    public List<Integer> getDeleted() {
+        return Collections.unmodifiableList(deleted);
+    }
+
+    /**
+     * The requested ids that do not exist. Always empty if the time series were selected by a name pattern.
+     *
+     * @return  an unmodifiable view of the missing ids
+     */
+    public List<Integer> getNotFound() {
+        return Collections.unmodifiableList(notFound);
+    }
+
+    /**
+     * The reason per time series that could not be deleted, keyed by the id of the time series.
+     *
+     * @return  an unmodifiable view of the failures
+     */
+    public Map<Integer, String> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * The amount of remote files that were deleted from the WebDAV, including files that did not exist anymore.
+     *
+     * @return  the amount of deleted remote files
+     */
+    public int getDeletedFileCount() {
+        return deletedFiles;
+    }
+
+    /**
+     * The amount of remote files of deleted time series that could not be deleted right away and were handed to the
+     * durable deletion queue, which keeps retrying them.
+     *
+     * @return  the amount of queued remote files
+     */
+    public int getQueuedFileCount() {
+        return queuedFiles;
+    }
+
+    /**
+     * The remote files of deleted time series that could neither be deleted nor queued for deletion. They have to be
+     * deleted manually.
+     *
+     * @return  the uris of the orphaned remote files
+     */
+    public List<String> getOrphanedFiles() {
+        return Collections.unmodifiableList(orphanedFiles);
+    }
+
+    /**
+     * Whether the user is not allowed to delete time series in the domain, nothing was deleted then.
+     *
+     * @return  <code>true</code> if the permission was denied
+     */
+    public boolean isPermissionDenied() {
+        return permissionDenied;
+    }
+
+    /**
+     * Whether the deletion was interrupted before every matching time series was processed.
+     *
+     * @return  <code>true</code> if the deletion was interrupted
+     */
+    public boolean isInterrupted() {
+        return interrupted;
+    }
+
+    /**
+     * Whether every matching time series was deleted.
+     *
+     * @return  <code>true</code> if the deletion was permitted, there were no failures, no remote files were orphaned
+     *          and the deletion was not interrupted
+     */
+    public boolean isComplete() {
+        return !permissionDenied && !interrupted && failures.isEmpty() && orphanedFiles.isEmpty();
+    }
+
+    /**
+     * The time the deletion took.
+     *
+     * @return  the duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Records the amount of matching time series.
+     *
+     * @param  matched  the amount of matching time series
+     */
+    void setMatchedCount(final int matched) {
+        this.matched = matched;
+    }
+
+    /**
+     * Records a deleted time series.
+     *
+     * @param  id  the id of the time series
+     */
+    void addDeleted(final int id) {
+        deleted.add(id);
+    }
+
+    /**
+     * Records a requested id that does not exist.
+     *
+     * @param  id  the requested id
+     */
+    void addNotFound(final int id) {
+        notFound.add(id);
+    }
+
+    /**
+     * Records a time series that could not be deleted.
+     *
+     * @param  id      the id of the time series
+     * @param  reason  the reason
+     */
+    void addFailure(final int id, final String reason) {
+        failures.put(id, reason);
+    }
+
+    /**
+     * Records deleted remote files.
+     *
+     * @param  count  the amount of deleted remote files
+     */
+    void addDeletedFiles(final int count) {
+        deletedFiles += count;
+    }
+
+    /**
+     * Records remote files that were queued for deletion.
+     *
+     * @param  count  the amount of queued remote files
+     */
+    void addQueuedFiles(final int count) {
+        queuedFiles += count;
+    }
+
+    /**
+     * Records remote files that could neither be deleted nor queued for deletion.
+     *
+     * @param  uris  the uris of the orphaned remote files
+     */
+    void addOrphanedFiles(final Collection<String> uris) {
+        orphanedFiles.addAll(uris);
+    }
+
+    /**
+     * Records that the user is not allowed to delete time series.
+     */
+    void setPermissionDenied() {
+        this.permissionDenied = true;
+    }
+
+    /**
+     * Records that the deletion was interrupted.
+     */
+    void setInterrupted() {
+        this.interrupted = true;
+    }
+
+    /**
+     * Records the time the deletion took.
+     *
+     * @param  duration  the duration in milliseconds
+     */
+    void setDuration(final long duration) {
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return "time series deletion in " + domain + ": matched=" + matched + ", deleted=" + deleted.size() // NOI18N
+                    + ", notFound=" + notFound.size() + ", failed=" + failures.size()                        // NOI18N
+                    + ", files=" + deletedFiles + ", queuedFiles=" + queuedFiles                             // NOI18N
+                    + ", orphanedFiles=" + orphanedFiles.size() + ", permissionDenied=" + permissionDenied   // NOI18N
+                    + ", interrupted=" + interrupted                                                         // NOI18N
+                    + ", duration=" + duration + "ms";                                                       // NOI18N
+    }
+}
@@ -0,0 +1,609 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+import de.cismet.cids.custom.sudplan.server.trigger.TimeSeriesFiles;
+
+import de.cismet.cids.server.search.AbstractCidsServerSearch;
+
+/**
+ * Deletes many time series of a single domain at once, selected either by their ids or by a name pattern. It is meant
+ * for purging the results of a finished scenario where deleting every time series bean on its own, each followed by
+ * synchronous WebDAV requests of the <code>TimeSeriesDeletionTrigger</code>, takes hours.<br/>
+ * <br/>
+ * Only users with write permission on the time series class of the domain may run the search, otherwise nothing is
+ * deleted and the report says so. The permission is checked for the class only, object permissions are not
+ * evaluated.<br/>
+ * <br/>
+ * The time series are resolved with one query per chunk of ids. Their rows are deleted in batches with plain SQL, if a
+ * batch statement fails the rows of the batch are deleted one by one. Only the remote files of the rows that were
+ * actually deleted are purged, concurrently on the {@link SearchExecutor} and while the next batches are deleted. A
+ * remote file that cannot be deleted, or whose deletion the saturated executor rejects, is handed to the durable
+ * deletion queue of the <code>TimeSeriesDeletionTrigger</code>, which keeps retrying it, and is only reported as
+ * orphaned if it cannot be queued either. Thus a row never outlives its files. If the server stops while the files of
+ * deleted rows are being purged, these files are orphaned.<br/>
+ * <br/>
+ * As the rows are deleted with plain SQL no cids trigger fires for them, neither the
+ * <code>TimeSeriesDeletionTrigger</code> nor any other trigger registered for time series. The search evicts the
+ * deleted names from the {@link TimeSeriesNameCache} itself. Progress is logged after every batch, the result contains
+ * a single {@link TimeSeriesBulkDeletionReport}.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class TimeSeriesBulkDeletionSearch extends AbstractCidsServerSearch {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(TimeSeriesBulkDeletionSearch.class);
+
+    private static final String CIDSCLASS = "timeseries";                                       // NOI18N
+    private static final String QUERY_RESOLVE = "SELECT id, name, uri FROM timeseries WHERE "; // NOI18N
+    private static final String STMT_DELETE = "DELETE FROM timeseries WHERE id IN (";         // NOI18N
+
+    /** the maximum amount of ids per resolve query. */
+    private static final int RESOLVE_CHUNK_SIZE = 1000;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final Set<Integer> ids;
+    private final String namePattern;
+
+    private int batchSize;
+    private int parallelism;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TimeSeriesBulkDeletionSearch object that deletes the time series with the given ids.
+     *
+     * @param   domain  the domain of the time series
+     * @param   ids     the ids of the time series
+     *
+     * @throws  NullPointerException      if the domain, the collection or one of the ids is null
+     * @throws  IllegalArgumentException  if the collection is empty
+     */
+    public TimeSeriesBulkDeletionSearch(final String domain, final Collection<Integer> ids) {
+        this(domain, ids, null);
+    }
+
+    /**
+     * Creates a new TimeSeriesBulkDeletionSearch object that deletes the time series whose name matches the given
+     * pattern.
+     *
+     * @param   domain       the domain of the time series
+     * @param   namePattern  a pattern in the syntax of SQL <code>LIKE</code>, e.g. <code>scenario_4711_%</code>
+     *
+     * @throws  NullPointerException      if the domain or the pattern is null
+     * @throws  IllegalArgumentException  if the pattern is empty or matches every name
+     */
+    public TimeSeriesBulkDeletionSearch(final String domain, final String namePattern) {
+        this(domain, null, namePattern);
+    }
+
+    /**
+     * Creates a new TimeSeriesBulkDeletionSearch object.
+     *
+     * @param   domain       the domain of the time series
+     * @param   ids          the ids of the time series or <code>null</code>
+     * @param   namePattern  the name pattern or <code>null</code>
+     *
+     * @throws  NullPointerException      if the domain or both the ids and the pattern are null
+     * @throws  IllegalArgumentException  if the ids or the pattern are empty or the pattern matches every name
+     */
+    private TimeSeriesBulkDeletionSearch(final String domain,
+            final Collection<Integer> ids,
+            final String namePattern) {
+        if (domain == null) {
+            throw new NullPointerException("domain must not be null"); // NOI18N
+        }
+
+        if (ids != null) {
+            if (ids.isEmpty()) {
+                throw new IllegalArgumentException("ids must not be empty"); // NOI18N
+            }
+
+            this.ids = new LinkedHashSet<Integer>(ids.size());
+            for (final Integer id : ids) {
+                if (id == null) {
+                    throw new NullPointerException("id must not be null"); // NOI18N
+                }
+
+                this.ids.add(id);
+            }
+        } else if (namePattern == null) {
+            throw new NullPointerException("namePattern must not be null"); // NOI18N
+        } else if (namePattern.replaceAll("[%_]", "").trim().isEmpty()) { // NOI18N
+            // a typo must not purge all time series
+            throw new IllegalArgumentException("namePattern must not be empty or match every name: " // NOI18N
+                        + namePattern);
+        } else {
+            this.ids = null;
+        }
+
+        this.domain = domain;
+        this.namePattern = namePattern;
+        this.batchSize = 200;
+        this.parallelism = 8;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Getter for the amount of rows that are deleted with a single statement.
+     *
+     * @return  the batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Setter for the amount of rows that are deleted with a single statement.
+     *
+     * @param   batchSize  the batch size
+     *
+     * @throws  IllegalArgumentException  if the batch size is not positive
+     */
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be positive: " + batchSize); // NOI18N
+        }
+
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Getter for the maximum amount of time series whose remote files are deleted at the same time.
+     *
+     * @return  the parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Setter for the maximum amount of time series whose remote files are deleted at the same time.
+     *
+     * @param   parallelism  the parallelism
+     *
+     * @throws  IllegalArgumentException  if the parallelism is not positive
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism); // NOI18N
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public Collection performServerSearch() {
+        final long start = System.currentTimeMillis();
+        final FederatedSearchResult<TimeSeriesBulkDeletionReport> result =
+            new FederatedSearchResult<TimeSeriesBulkDeletionReport>();
+        final TimeSeriesBulkDeletionReport report = new TimeSeriesBulkDeletionReport(domain);
+        result.add(report);
+
+        final MetaService ms = (MetaService)getActiveLocalServers().get(domain);
+        if (ms == null) {
+            LOG.error("cannot delete time series, domain is not available: " + domain); // NOI18N
+            result.setDomainStatus(domain, DomainStatus.FAILED);
+
+            return result;
+        }
+
+        try {
+            if (!isPermitted(ms)) {
+                LOG.error("user " + getUser() + " is not allowed to delete time series in domain " + domain); // NOI18N
+                report.setPermissionDenied();
+                result.setDomainStatus(domain, DomainStatus.FAILED);
+
+                return result;
+            }
+        } catch (final Exception ex) {
+            LOG.error("cannot check the permissions of user " + getUser() + " in domain " + domain, ex); // NOI18N
+            result.setDomainStatus(domain, DomainStatus.FAILED);
+
+            return result;
+        }
+
+        final List<TimeSeries> matches;
+        try {
+            matches = resolve(ms, report);
+        } catch (final Exception ex) {
+            LOG.error("cannot resolve time series to delete in domain " + domain, ex); // NOI18N
+            result.setDomainStatus(domain, DomainStatus.FAILED);
+
+            return result;
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("deleting " + matches.size() + " time series in domain " + domain); // NOI18N
+        }
+
+        delete(ms, matches, report);
+
+        report.setDuration(System.currentTimeMillis() - start);
+        result.setDomainStatus(domain, report.isComplete() ? DomainStatus.OK : DomainStatus.PARTIAL);
+        if (LOG.isInfoEnabled()) {
+            LOG.info(report);
+        }
+
+        return result;
+    }
+
+    /**
+     * Checks whether the user of this search may delete time series, i.e. whether it has write permission on the time
+     * series class of the domain.
+     *
+     * @param   ms  the MetaService of the domain
+     *
+     * @return  <code>true</code> if the user may delete time series
+     *
+     * @throws  Exception  if the class cannot be resolved
+     */
+    private boolean isPermitted(final MetaService ms) throws Exception {
+        final MetaClass metaClass = MetaClassCache.getInstance()
+                    .getClassByTableName(domain, ms, getUser(), CIDSCLASS);
+
+        // a class the user cannot see is not resolved at all
+        return (metaClass != null) && (metaClass.getPermissions() != null)
+                    && metaClass.getPermissions().hasWritePermission(getUser());
+    }
+
+    /**
+     * Queries the id, the name and the uri of the matching time series.
+     *
+     * @param   ms      the MetaService of the domain
+     * @param   report  the report recording the requested ids that do not exist
+     *
+     * @return  the matching time series
+     *
+     * @throws  Exception  if a query fails
+     */
+    private List<TimeSeries> resolve(final MetaService ms, final TimeSeriesBulkDeletionReport report)
+            throws Exception {
+        final List<TimeSeries> matches = new ArrayList<TimeSeries>();
+        if (ids == null) {
+            matches.addAll(toTimeSeries(ms.performCustomSearch(
+                        QUERY_RESOLVE
+                                + "name LIKE "                                         // NOI18N
+                                + SqlLiterals.quote(namePattern)
+                                + " ORDER BY id")));                                   // NOI18N
+        } else {
+            final List<Integer> all = new ArrayList<Integer>(ids);
+            for (int from = 0; from < all.size(); from += RESOLVE_CHUNK_SIZE) {
+                final List<Integer> chunk = all.subList(from, Math.min(all.size(), from + RESOLVE_CHUNK_SIZE));
+                final Map<Integer, TimeSeries> found = new LinkedHashMap<Integer, TimeSeries>(chunk.size());
+                final String query = QUERY_RESOLVE + "id IN (" + join(chunk) + ")"; // NOI18N
+                for (final TimeSeries ts : toTimeSeries(ms.performCustomSearch(query))) {
+                    found.put(ts.id, ts);
+                }
+                for (final Integer id : chunk) {
+                    final TimeSeries ts = found.get(id);
+                    if (ts == null) {
+                        report.addNotFound(id);
+                    } else {
+                        matches.add(ts);
+                    }
+                }
+            }
+        }
+
+        report.setMatchedCount(matches.size());
+
+        return matches;
+    }
+
+    /**
+     * Deletes the rows of the given time series in batches and purges the remote files of every deleted row
+     * concurrently while the next batches are deleted.
+     *
+     * @param  ms       the MetaService of the domain
+     * @param  matches  the time series to delete
+     * @param  report   the report to record the outcome in
+     */
+    private void delete(final MetaService ms,
+            final List<TimeSeries> matches,
+            final TimeSeriesBulkDeletionReport report) {
+        // a deletion never runs inline, it would block this thread while it counts as in flight
+        final CompletionService<TimeSeries> completionService = new ExecutorCompletionService<TimeSeries>(
+                new Executor() {
+
+                    @Override
+                    public void execute(final Runnable command) {
+                        SearchExecutor.getInstance().execute(command, SearchExecutor.RejectionPolicy.ABORT);
+                    }
+                });
+        final Map<Future<TimeSeries>, FileDeletion> inFlight = new LinkedHashMap<Future<TimeSeries>, FileDeletion>();
+        final TimeSeriesFiles files = TimeSeriesFiles.getInstance();
+
+        try {
+            for (int from = 0; from < matches.size(); from += batchSize) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedException();
+                }
+
+                final List<TimeSeries> batch = matches.subList(from, Math.min(matches.size(), from + batchSize));
+                for (final TimeSeries ts : deleteRows(ms, batch, report)) {
+                    final List<String> uris = files.resolve(ts.uri);
+                    if (uris.isEmpty()) {
+                        continue;
+                    }
+
+                    // keep at most parallelism time series on the WebDAV at once
+                    while (inFlight.size() >= parallelism) {
+                        final Future<TimeSeries> done = completionService.take();
+                        complete(done, inFlight.remove(done), report);
+                    }
+
+                    final FileDeletion deletion = new FileDeletion(ts, uris);
+                    try {
+                        inFlight.put(completionService.submit(deletion), deletion);
+                    } catch (final RejectedExecutionException ex) {
+                        // the executor is saturated, the deletion queue deletes the files later
+                        LOG.warn("search executor is saturated, queueing the files of time series " + ts.id); // NOI18N
+                        deleteLater(uris, report);
+                    }
+                }
+            }
+
+            while (!inFlight.isEmpty()) {
+                final Future<TimeSeries> done = completionService.take();
+                complete(done, inFlight.remove(done), report);
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            LOG.warn("time series deletion in domain " + domain + " was interrupted", ex); // NOI18N
+            report.setInterrupted();
+
+            // the rows of these time series are gone already, so their files must not be forgotten
+            final List<String> pending = new ArrayList<String>();
+            for (final Map.Entry<Future<TimeSeries>, FileDeletion> entry : inFlight.entrySet()) {
+                entry.getKey().cancel(true);
+                pending.addAll(entry.getValue().uris);
+            }
+            deleteLater(pending, report);
+        }
+    }
+
+    /**
+     * Records the outcome of a finished deletion of remote files. Files that could not be deleted are handed to the
+     * deletion queue.
+     *
+     * @param   done      the finished deletion
+     * @param   deletion  the task of the deletion
+     * @param   report    the report to record the outcome in
+     *
+     * @throws  InterruptedException  if the current thread was interrupted
+     */
+    private void complete(final Future<TimeSeries> done,
+            final FileDeletion deletion,
+            final TimeSeriesBulkDeletionReport report) throws InterruptedException {
+        try {
+            done.get();
+            report.addDeletedFiles(deletion.uris.size());
+        } catch (final ExecutionException ex) {
+            LOG.warn("cannot delete remote files of deleted time series " + deletion.timeSeries.id // NOI18N
+                        + ", queueing them for deletion",                                     // NOI18N
+                ex.getCause());
+            deleteLater(deletion.uris, report);
+        }
+    }
+
+    /**
+     * Hands the given remote files of deleted time series to the durable deletion queue. Files that are gone already
+     * are deleted again, which is harmless.
+     *
+     * @param  uris    the uris of the remote files
+     * @param  report  the report to record the outcome in
+     */
+    private void deleteLater(final List<String> uris, final TimeSeriesBulkDeletionReport report) {
+        if (uris.isEmpty()) {
+            return;
+        }
+
+        try {
+            TimeSeriesFiles.getInstance().deleteLater(uris);
+            report.addQueuedFiles(uris.size());
+        } catch (final IOException ex) {
+            // the rows are gone already, so there is nothing left but to report the orphaned files
+            LOG.error("cannot enqueue deletion of remote files, files are orphaned: " + uris, ex); // NOI18N
+            report.addOrphanedFiles(uris);
+        }
+    }
+
+    /**
+     * Deletes the rows of the given time series with a single statement. If the statement fails the rows are deleted
+     * one by one to isolate the failing ones.
+     *
+     * @param   ms      the MetaService of the domain
+     * @param   batch   the time series to delete
+     * @param   report  the report to record the outcome in
+     *
+     * @return  the time series whose rows were deleted
+     */
+    private List<TimeSeries> deleteRows(final MetaService ms,
+            final List<TimeSeries> batch,
+            final TimeSeriesBulkDeletionReport report) {
+        final List<Integer> batchIds = new ArrayList<Integer>(batch.size());
+        for (final TimeSeries ts : batch) {
+            batchIds.add(ts.id);
+        }
+
+        final List<TimeSeries> deleted = new ArrayList<TimeSeries>(batch.size());
+        try {
+            ms.update(getUser(), STMT_DELETE + join(batchIds) + ")"); // NOI18N
+            deleted.addAll(batch);
+        } catch (final Exception ex) {
+            LOG.warn("cannot delete batch of time series, deleting them one by one: " + batchIds, ex); // NOI18N
+            for (final TimeSeries ts : batch) {
+                try {
+                    ms.update(getUser(), STMT_DELETE + ts.id + ")");                                 // NOI18N
+                    deleted.add(ts);
+                } catch (final Exception e) {
+                    // the remote files are untouched, so the time series is intact
+                    LOG.error("cannot delete time series " + ts.id + ", keeping its remote files", e); // NOI18N
+                    report.addFailure(ts.id, "row: " + e);                                         // NOI18N
+                }
+            }
+        }
+
+        for (final TimeSeries ts : deleted) {
+            deleted(ts, report);
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("deleted " + report.getDeleted().size() + " of " + report.getMatchedCount() // NOI18N
+                        + " time series in domain " + domain + ", failed: " + report.getFailures().size()); // NOI18N
+        }
+
+        return deleted;
+    }
+
+    /**
+     * Records the deletion of the given time series and evicts it from the {@link TimeSeriesNameCache}.
+     *
+     * @param  ts      the deleted time series
+     * @param  report  the report to record the deletion in
+     */
+    private void deleted(final TimeSeries ts, final TimeSeriesBulkDeletionReport report) {
+        report.addDeleted(ts.id);
+        TimeSeriesNameCache.getInstance().evict(ts.name);
+    }
+
+    /**
+     * Converts the rows of a resolve query.
+     *
+     * @param   rows  rows of id, name and uri
+     *
+     * @return  the time series
+     */
+    private static List<TimeSeries> toTimeSeries(final List<ArrayList> rows) {
+        final List<TimeSeries> result = new ArrayList<TimeSeries>(rows.size());
+        for (final ArrayList row : rows) {
+            result.add(new TimeSeries(((Number)row.get(0)).intValue(), (String)row.get(1), (String)row.get(2)));
+        }
+
+        return result;
+    }
+
+    /**
+     * Joins the given ids to the content of an IN-list.
+     *
+     * @param   ids  the ids
+     *
+     * @return  the comma separated ids
+     */
+    private static String join(final Collection<Integer> ids) {
+        final StringBuilder sb = new StringBuilder(ids.size() * 8);
+        for (final Integer id : ids) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(id.intValue());
+        }
+
+        return sb.toString();
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * A time series to delete.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class TimeSeries {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final int id;
+        private final String name;
+        private final String uri;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new TimeSeries object.
+         *
+         * @param  id    the id of the time series
+         * @param  name  the name of the time series
+         * @param  uri   the uri of the time series
+         */
+        TimeSeries(final int id, final String name, final String uri) {
+            this.id = id;
+            this.name = name;
+            this.uri = uri;
+        }
+    }
+
+    /**
+     * Deletes the remote files of a single time series one after another.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class FileDeletion implements Callable<TimeSeries> {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final TimeSeries timeSeries;
+        private final List<String> uris;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new FileDeletion object.
+         *
+         * @param  timeSeries  the time series
+         * @param  uris        the uris of its remote files
+         */
+        FileDeletion(final TimeSeries timeSeries, final List<String> uris) {
+            this.timeSeries = timeSeries;
+            this.uris = uris;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public TimeSeries call() throws Exception {
+            for (final String uri : uris) {
+                final int status = TimeSeriesFiles.getInstance().delete(uri);
+                if (!TimeSeriesFiles.isGone(status)) {
+                    throw new IOException("unexpected status " + status + " deleting " + uri); // NOI18N
+                }
+            }
+
+            return timeSeries;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+/**
+ * A time series found by the {@link FederatedTimeSeriesSearch}. Hits are identified by their domain and id, so the
+ * same time series is never delivered twice, even if it matches several terms.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class TimeSeriesHit implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = 2236181730482765174L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String domain;
+    private final int id;
+    private final String name;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TimeSeriesHit object.
+     *
+     * @param  domain  the domain of the time series
+     * @param  id      the id of the time series
+     * @param  name    the name of the time series
+     */
+    TimeSeriesHit(final String domain, final int id, final String name) {
+        this.domain = domain;
+        this.id = id;
+        this.name = name;
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The domain of the time series.
+     *
+     * @return  the domain
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    /**
+     * The id of the time series within its domain.
+     *
+     * @return  the id
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * The name of the time series.
+     *
+     * @return  the name
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (!(obj instanceof TimeSeriesHit)) {
+            return false;
+        }
+
+        final TimeSeriesHit other = (TimeSeriesHit)obj;
+
+        return domain.equals(other.domain) && (id == other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return (31 * domain.hashCode()) + id;
+    }
+
+    @Override
+    public String toString() {
+        return domain + ":" + id + ":" + name; // NOI18N
+    }
+}
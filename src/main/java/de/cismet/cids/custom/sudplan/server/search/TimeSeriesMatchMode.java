@@ -0,0 +1,29 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+/**
+ * Determines how the terms of a {@link FederatedTimeSeriesSearch} are matched against the names of the time series.
+ *
+ * @version  $Revision$, $Date$
+ */
+public enum TimeSeriesMatchMode {
+
+    //~ Enum constants ---------------------------------------------------------
+
+    /** The name equals one of the terms. */
+    EXACT,
+
+    /** The name starts with one of the terms, wildcard characters in the terms are matched literally. */
+    PREFIX,
+
+    /**
+     * The name matches one of the terms in the syntax of SQL <code>LIKE</code>, e.g. <code>scenario_%_86400s</code>.
+     */
+    PATTERN
+}
@@ -0,0 +1,281 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Gauge;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+/**
+ * Caches the outcome of {@link TimeSeriesSearch} lookups: time series name &rarr; (domain &rarr; rows of id and name).
+ * Names that were not found in any domain are cached, too. The cache is bounded (LRU) and every entry expires after a
+ * time to live. Configuration is read from the system properties <code>maxSize</code> (default 10000) and <code>
+ * ttl</code> (milliseconds, default 5 minutes) with the prefix {@link #PROP_PREFIX}.<br/>
+ * <br/>
+ * Entries are evicted by the <code>TimeSeriesDeletionTrigger</code> as soon as a time series is created, changed or
+ * deleted. The trigger can only reach the cache if it runs within the same VM as the search, otherwise the time to live
+ * bounds the staleness.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class TimeSeriesNameCache {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(TimeSeriesNameCache.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.timeseriesnames."; // NOI18N
+
+    private static final TimeSeriesNameCache INSTANCE = new TimeSeriesNameCache(
+            Integer.getInteger(PROP_PREFIX + "maxSize", 10000),                  // NOI18N
+            Long.getLong(PROP_PREFIX + "ttl", TimeUnit.MINUTES.toMillis(5)));    // NOI18N
+
+    static {
+        Metrics.getInstance().gauge("cache.timeseriesnames.hits", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getHitCount();
+                }
+            });
+        Metrics.getInstance().gauge("cache.timeseriesnames.misses", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getMissCount();
+                }
+            });
+    }
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long ttl;
+    private final LinkedHashMap<String, CacheEntry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private long generation;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TimeSeriesNameCache object.
+     *
+     * @param  maxSize  the maximum amount of cached names
+     * @param  ttl      the time to live of an entry in milliseconds
+     */
+    private TimeSeriesNameCache(final int maxSize, final long ttl) {
+        this.ttl = ttl;
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.generation = 0;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                    return size() > maxSize;
+                }
+            };
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide time series name cache.
+     *
+     * @return  the name cache
+     */
+    public static TimeSeriesNameCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Provides the cached rows of the given name per domain.
+     *
+     * @param   name  the name of the time series
+     *
+     * @return  a copy of the rows per domain, an empty map if the name is known to not exist or <code>null</code> if
+     *          there is no valid entry
+     */
+    public Map<String, ArrayList<ArrayList>> get(final String name) {
+        final CacheEntry entry;
+        synchronized (entries) {
+            entry = entries.get(name);
+            if ((entry != null) && (entry.expires <= System.currentTimeMillis())) {
+                entries.remove(name);
+                misses.incrementAndGet();
+
+                return null;
+            }
+        }
+
+        if (entry == null) {
+            misses.incrementAndGet();
+
+            return null;
+        }
+
+        hits.incrementAndGet();
+
+        return copy(entry.rows);
+    }
+
+    /**
+     * Provides the current generation of the cache. The generation changes with every eviction. A lookup obtains the
+     * generation before it queries the domains and hands it to {@link #put(String, Map, long)} so that a result that
+     * was overtaken by a concurrent change is not cached.
+     *
+     * @return  the current generation
+     */
+    public long getGeneration() {
+        synchronized (entries) {
+            return generation;
+        }
+    }
+
+    /**
+     * Caches the rows of the given name per domain unless an eviction happened since the given generation was
+     * obtained. Only complete lookups must be cached.
+     *
+     * @param  name        the name of the time series
+     * @param  rows        the rows per domain, empty if the name was not found in any domain
+     * @param  generation  the generation of the cache when the lookup started
+     */
+    public void put(final String name, final Map<String, ArrayList<ArrayList>> rows, final long generation) {
+        final CacheEntry entry = new CacheEntry(copy(rows), System.currentTimeMillis() + ttl);
+        synchronized (entries) {
+            if (this.generation == generation) {
+                entries.put(name, entry);
+            }
+        }
+    }
+
+    /**
+     * Evicts the entry of the given name.
+     *
+     * @param  name  the name of the time series
+     */
+    public void evict(final String name) {
+        if (name != null) {
+            synchronized (entries) {
+                ++generation;
+                entries.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Evicts every entry that contains the time series with the given id in the given domain. This covers renamed time
+     * series whose previous name is unknown.
+     *
+     * @param  domain  the domain of the time series
+     * @param  id      the id of the time series
+     */
+    public void evict(final String domain, final int id) {
+        synchronized (entries) {
+            ++generation;
+            final Iterator<CacheEntry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                final ArrayList<ArrayList> rows = it.next().rows.get(domain);
+                if (rows != null) {
+                    for (final ArrayList row : rows) {
+                        final Object rowId = row.get(0);
+                        if ((rowId instanceof Number) && (((Number)rowId).intValue() == id)) {
+                            it.remove();
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("evicted time series names of id " + id + "@" + domain); // NOI18N
+        }
+    }
+
+    /**
+     * Evicts all entries.
+     */
+    public void clear() {
+        synchronized (entries) {
+            ++generation;
+            entries.clear();
+        }
+    }
+
+    /**
+     * The amount of lookups that were served from the cache.
+     *
+     * @return  the amount of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The amount of lookups that were not served from the cache.
+     *
+     * @return  the amount of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Creates a copy of the given rows per domain so that callers cannot change the cached lists.
+     *
+     * @param   rows  the rows per domain
+     *
+     * @return  the copy
+     */
+    private static Map<String, ArrayList<ArrayList>> copy(final Map<String, ArrayList<ArrayList>> rows) {
+        final Map<String, ArrayList<ArrayList>> copy = new LinkedHashMap<String, ArrayList<ArrayList>>(rows.size());
+        for (final Map.Entry<String, ArrayList<ArrayList>> entry : rows.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<ArrayList>(entry.getValue()));
+        }
+
+        return copy;
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * DOCUMENT ME!
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class CacheEntry {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final Map<String, ArrayList<ArrayList>> rows;
+        private final long expires;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new CacheEntry object.
+         *
+         * @param  rows     the rows per domain
+         * @param  expires  the time in milliseconds the entry is valid until
+         */
+        CacheEntry(final Map<String, ArrayList<ArrayList>> rows, final long expires) {
+            this.rows = rows;
+            this.expires = expires;
+        }
+    }
+}
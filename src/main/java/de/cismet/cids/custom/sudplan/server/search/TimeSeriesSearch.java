@@ -11,21 +11,27 @@ import Sirius.server.middleware.interfaces.domainserver.MetaService;
 
 import org.apache.log4j.Logger;
 
-import java.rmi.RemoteException;
-
-import java.text.MessageFormat;
-
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
 
 import de.cismet.cids.server.search.AbstractCidsServerSearch;
 
 /**
- * TimeSeriesSearch is utilized for finding TimeSeries records having the specified name. It searches in every available
- * domain as the current storage for timeseries is centralised.
+ * TimeSeriesSearch is utilized for finding TimeSeries records having the specified name(s). It searches in every
+ * available domain as the current storage for timeseries is centralised. The domains are queried concurrently and every
+ * domain has to answer within the configured timeout. Complete lookups are kept in the {@link TimeSeriesNameCache}.
  *
  * @author   Benjamin Friedrich (benjamin.friedrich@cismet.de)
  * @author   Martin Scholl (martin.scholl@cismet.de)
@@ -38,11 +44,18 @@ public final class TimeSeriesSearch extends AbstractCidsServerSearch {
     /** LOGGER. */
     private static final transient Logger LOG = Logger.getLogger(TimeSeriesSearch.class);
 
-    private static final String QUERY = "select id from timeseries where name = ''{0}''"; // NOI18N
+    /** the prefix of the names of the metrics of this search. */
+    private static final String METRICS_PREFIX = "timeseries."; // NOI18N
+
+    private static final String QUERY_SINGLE = "select id, name from timeseries where name = ";  // NOI18N
+    private static final String QUERY_BATCH = "select id, name from timeseries where name in ("; // NOI18N
 
     //~ Instance fields --------------------------------------------------------
 
-    private final String name;
+    private final Set<String> names;
+
+    private long domainTimeout;
+    private FanOutMode fanOutMode;
 
     //~ Constructors -----------------------------------------------------------
 
@@ -55,54 +68,365 @@ public final class TimeSeriesSearch extends AbstractCidsServerSearch {
      * @throws  IllegalArgumentException  DOCUMENT ME!
      */
     public TimeSeriesSearch(final String name) {
-        if (name == null) {
-            throw new NullPointerException("Name must not be null"); // NOI18N
+        this(Collections.singleton(name));
+    }
+
+    /**
+     * Creates a new TimeSeriesSearch object that resolves all the given names with a single query per domain. The rows
+     * of the result contain the id and the name of the time series so that the caller can assign them.
+     *
+     * @param   names  the names of the time series
+     *
+     * @throws  NullPointerException      if the collection or one of the names is null
+     * @throws  IllegalArgumentException  if the collection or one of the names is empty
+     */
+    public TimeSeriesSearch(final Collection<String> names) {
+        if (names == null) {
+            throw new NullPointerException("Names must not be null"); // NOI18N
+        }
+
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("Names must not be empty"); // NOI18N
         }
 
-        if (name.trim().isEmpty()) {
-            throw new IllegalArgumentException("Name must not be empty"); // NOI18N
+        this.names = new LinkedHashSet<String>(names.size());
+        for (final String name : names) {
+            if (name == null) {
+                throw new NullPointerException("Name must not be null"); // NOI18N
+            }
+
+            if (name.trim().isEmpty()) {
+                throw new IllegalArgumentException("Name must not be empty"); // NOI18N
+            }
+
+            this.names.add(name);
         }
 
-        this.name = name;
+        this.domainTimeout = TimeUnit.MINUTES.toMillis(2);
+        this.fanOutMode = FanOutMode.ALL;
     }
 
     //~ Methods ----------------------------------------------------------------
 
+    /**
+     * Getter for the time in milliseconds every domain has to deliver its time series.
+     *
+     * @return  the timeout per domain in milliseconds
+     */
+    public long getDomainTimeout() {
+        return domainTimeout;
+    }
+
+    /**
+     * Setter for the time in milliseconds every domain has to deliver its time series.
+     *
+     * @param   domainTimeout  the timeout per domain in milliseconds
+     *
+     * @throws  IllegalArgumentException  if the timeout is not positive
+     */
+    public void setDomainTimeout(final long domainTimeout) {
+        if (domainTimeout < 1) {
+            throw new IllegalArgumentException("domainTimeout must be positive: " + domainTimeout); // NOI18N
+        }
+
+        this.domainTimeout = domainTimeout;
+    }
+
+    /**
+     * Getter for the amount of domains the search waits for.
+     *
+     * @return  the fan out mode
+     */
+    public FanOutMode getFanOutMode() {
+        return fanOutMode;
+    }
+
+    /**
+     * Setter for the amount of domains the search waits for. {@link FanOutMode#FIRST_HIT} trades completeness for
+     * latency and is suitable if the names are known to be unique. It returns as soon as every name has a hit.
+     *
+     * @param   fanOutMode  the fan out mode
+     *
+     * @throws  IllegalArgumentException  if the mode is null
+     */
+    public void setFanOutMode(final FanOutMode fanOutMode) {
+        if (fanOutMode == null) {
+            throw new IllegalArgumentException("fanOutMode must not be null"); // NOI18N
+        }
+
+        this.fanOutMode = fanOutMode;
+    }
+
     @Override
     public Collection performServerSearch() {
+        final long start = System.nanoTime();
+        try {
+            final Collection result = search();
+            Metrics.getInstance().add(METRICS_PREFIX + "results", result.size()); // NOI18N
+
+            return result;
+        } catch (final RuntimeException ex) {
+            Metrics.getInstance().increment(METRICS_PREFIX + "errors");         // NOI18N
+
+            throw ex;
+        } finally {
+            Metrics.getInstance().stop(METRICS_PREFIX + "search", start);       // NOI18N
+        }
+    }
+
+    /**
+     * Performs the search.
+     *
+     * @return  the rows of the time series per name and domain
+     *
+     * @throws  IllegalStateException  if no domain delivered a hit and at least one domain failed
+     */
+    private Collection search() {
         final Map<String, MetaService> mss = getActiveLocalServers();
+        final TimeSeriesNameCache cache = TimeSeriesNameCache.getInstance();
+        final long generation = cache.getGeneration();
+
+        // names that were looked up recently are served from the cache, only the others are queried
+        final Map<String, ArrayList<ArrayList>> merged = new LinkedHashMap<String, ArrayList<ArrayList>>();
+        final Set<String> uncached = new LinkedHashSet<String>(names.size());
+        for (final String name : names) {
+            final Map<String, ArrayList<ArrayList>> cached = cache.get(name);
+            if (cached == null) {
+                uncached.add(name);
+            } else {
+                merge(merged, cached);
+            }
+        }
 
+        final FederatedSearchResult<Map<String, List<? extends List>>> lists =
+            new FederatedSearchResult<Map<String, List<? extends List>>>();
+        if (!uncached.isEmpty()) {
+            final Map<String, ArrayList<ArrayList>> results = query(mss, uncached, lists);
+            merge(merged, results);
+
+            if (isCacheable(lists)) {
+                for (final String name : uncached) {
+                    cache.put(name, filter(results, name), generation);
+                }
+            }
+        } else if (LOG.isDebugEnabled()) {
+            LOG.debug("served time series search from cache: " + names); // NOI18N
+        }
+
+        for (final Map.Entry<String, ArrayList<ArrayList>> entry : merged.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                if (lists.isEmpty()) {
+                    lists.add(new HashMap<String, List<? extends List>>());
+                }
+                lists.get(0).put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        if (!lists.isComplete()) {
+            // without any hit the caller could not tell a missing time series from a failed search
+            if (lists.isEmpty()) {
+                final String message = "cannot perform time series search: " + lists.getDomainStatus(); // NOI18N
+                LOG.error(message);
+
+                throw new IllegalStateException(message);
+            } else {
+                LOG.warn("time series search returns partial results: " + lists.getDomainStatus()); // NOI18N
+            }
+        }
+
+        return lists;
+    }
+
+    /**
+     * Queries the given names in all given domains concurrently and records the status of every domain.
+     *
+     * @param   mss     the services of the domains
+     * @param   lookup  the names to query
+     * @param   status  receives the status per domain
+     *
+     * @return  the rows per domain that delivered its result
+     *
+     * @throws  IllegalStateException  if the current thread is interrupted
+     */
+    private Map<String, ArrayList<ArrayList>> query(final Map<String, MetaService> mss,
+            final Set<String> lookup,
+            final FederatedSearchResult<?> status) {
+        final String query = createQuery(lookup);
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("query: " + query); // NOI18N
+        }
+
+        // the domains are queried concurrently, every domain has its own deadline
+        final DomainFanOut<ArrayList<ArrayList>> fanOut = new DomainFanOut<ArrayList<ArrayList>>(
+                SearchExecutor.getInstance(),
+                domainTimeout,
+                TimeUnit.MILLISECONDS);
+        for (final String domain : mss.keySet()) {
+            final MetaService ms = mss.get(domain);
+
+            if (ms != null) {
+                fanOut.submit(domain, new Callable<ArrayList<ArrayList>>() {
+
+                        @Override
+                        public ArrayList<ArrayList> call() throws Exception {
+                            final long start = System.nanoTime();
+                            try {
+                                return ms.performCustomSearch(query);
+                            } finally {
+                                Metrics.getInstance().stop(METRICS_PREFIX + "domain." + domain, start); // NOI18N
+                            }
+                        }
+                    });
+            }
+        }
+
+        final Map<String, ArrayList<ArrayList>> results;
         try {
-            final String query = MessageFormat.format(QUERY, this.name);
+            results = fanOut.await((FanOutMode.FIRST_HIT == fanOutMode) ? new AllNamesFound(lookup) : null);
+        } catch (final InterruptedException ex) {
+            final String message = "time series search was interrupted"; // NOI18N
+            LOG.error(message, ex);
+            Thread.currentThread().interrupt();
+
+            throw new IllegalStateException(message, ex);
+        }
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("query: " + query); // NOI18N
+        for (final Map.Entry<String, DomainStatus> entry : fanOut.getStatus().entrySet()) {
+            status.setDomainStatus(entry.getKey(), entry.getValue());
+            if ((DomainStatus.FAILED == entry.getValue()) || (DomainStatus.TIMED_OUT == entry.getValue())) {
+                Metrics.getInstance().increment(METRICS_PREFIX + "errors." + entry.getKey()); // NOI18N
             }
+            if (DomainStatus.FAILED == entry.getValue()) {
+                LOG.error(
+                    "time series search failed in domain " + entry.getKey(), // NOI18N
+                    fanOut.getError(entry.getKey()));
+            }
+        }
 
-            final List<Map<String, List<? extends List>>> lists = new ArrayList<Map<String, List<? extends List>>>(
-                    mss.size());
+        return results;
+    }
 
-            for (final String domain : mss.keySet()) {
-                final MetaService ms = mss.get(domain);
+    /**
+     * Whether the result of a lookup may be cached, i.e. every domain delivered its complete result.
+     *
+     * @param   result  the result of the lookup
+     *
+     * @return  <code>true</code> if every domain delivered or was skipped deliberately
+     */
+    private static boolean isCacheable(final FederatedSearchResult<?> result) {
+        for (final DomainStatus status : result.getDomainStatus().values()) {
+            if ((DomainStatus.OK != status) && (DomainStatus.SKIPPED != status)) {
+                return false;
+            }
+        }
 
-                if (ms != null) {
-                    final ArrayList<ArrayList> timeseries = ms.performCustomSearch(query);
+        return true;
+    }
 
-                    if ((timeseries != null) && !timeseries.isEmpty()) {
-                        if (lists.isEmpty()) {
-                            lists.add(new HashMap<String, List<? extends List>>());
+    /**
+     * Extracts the rows of the given name.
+     *
+     * @param   results  the rows per domain
+     * @param   name     the name of the time series
+     *
+     * @return  the rows of the name per domain, domains without such rows are left out
+     */
+    private static Map<String, ArrayList<ArrayList>> filter(final Map<String, ArrayList<ArrayList>> results,
+            final String name) {
+        final Map<String, ArrayList<ArrayList>> filtered = new LinkedHashMap<String, ArrayList<ArrayList>>();
+        for (final Map.Entry<String, ArrayList<ArrayList>> entry : results.entrySet()) {
+            if (entry.getValue() != null) {
+                for (final ArrayList row : entry.getValue()) {
+                    if (name.equals(row.get(1))) {
+                        ArrayList<ArrayList> rows = filtered.get(entry.getKey());
+                        if (rows == null) {
+                            rows = new ArrayList<ArrayList>();
+                            filtered.put(entry.getKey(), rows);
                         }
-                        lists.get(0).put(domain, timeseries);
+                        rows.add(row);
                     }
                 }
             }
+        }
 
-            return lists;
-        } catch (final RemoteException ex) {
-            final String message = "cannot perform time series search"; // NOI18N
-            LOG.error(message, ex);
+        return filtered;
+    }
+
+    /**
+     * Adds the given rows per domain to the target.
+     *
+     * @param  target  the merged rows per domain
+     * @param  rows    the rows to add
+     */
+    private static void merge(final Map<String, ArrayList<ArrayList>> target,
+            final Map<String, ArrayList<ArrayList>> rows) {
+        for (final Map.Entry<String, ArrayList<ArrayList>> entry : rows.entrySet()) {
+            if (entry.getValue() != null) {
+                ArrayList<ArrayList> merged = target.get(entry.getKey());
+                if (merged == null) {
+                    merged = new ArrayList<ArrayList>();
+                    target.put(entry.getKey(), merged);
+                }
+                merged.addAll(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Creates the query for the given names. The names are sent as escaped literals, a name containing quotes or
+     * backslashes can neither break the statement nor inject SQL.
+     *
+     * @param   lookup  the names to query
+     *
+     * @return  the query
+     */
+    private static String createQuery(final Set<String> lookup) {
+        if (lookup.size() == 1) {
+            return QUERY_SINGLE + SqlLiterals.quote(lookup.iterator().next());
+        } else {
+            return QUERY_BATCH + SqlLiterals.inList(lookup) + ")"; // NOI18N
+        }
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * Ends the search as soon as every queried name was found in one of the domains.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class AllNamesFound implements DomainFanOut.StopCondition<ArrayList<ArrayList>> {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final Set<String> lookup;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new AllNamesFound object.
+         *
+         * @param  lookup  the queried names
+         */
+        AllNamesFound(final Set<String> lookup) {
+            this.lookup = lookup;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public boolean isSatisfied(final Map<String, ArrayList<ArrayList>> results) {
+            final Set<String> missing = new HashSet<String>(lookup);
+            for (final ArrayList<ArrayList> rows : results.values()) {
+                if (rows != null) {
+                    for (final ArrayList row : rows) {
+                        missing.remove((String)row.get(1));
+                    }
+                }
+            }
 
-            throw new IllegalStateException(message, ex); // NOI18N
+            return missing.isEmpty();
         }
     }
 }
@@ -0,0 +1,276 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.types.MetaObject;
+import Sirius.server.newuser.User;
+
+import org.apache.log4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Gauge;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+
+/**
+ * Short-lived cache for the results of the {@link UnfinishedRunSearchStatement}. As the visible runs depend on the
+ * permissions of the user the results are kept per user and user group, and as they depend on the settings of the
+ * search, e.g. the chunk failure policy or the domains, also per variant of the search. Concurrent searches of the same
+ * user in the same group with the same variant are coalesced: only the first one fans out to the domains, the others
+ * wait for its result. A result is kept for a short time to live (system property <code>ttl</code> in milliseconds
+ * with the prefix {@link #PROP_PREFIX}, default 5 seconds, <code>0</code> turns the cache off), incomplete results are
+ * only shared with the searches that waited for them.<br/>
+ * <br/>
+ * The cache is invalidated by the <code>RunCacheInvalidationTrigger</code> whenever a run is inserted, changed or
+ * deleted. A search that is in flight while the cache is invalidated still serves its waiting searches but its result
+ * is not kept.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class UnfinishedRunCache {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(UnfinishedRunCache.class);
+
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.unfinishedruns."; // NOI18N
+
+    private static final UnfinishedRunCache INSTANCE = new UnfinishedRunCache(Long.getLong(
+                PROP_PREFIX + "ttl",                                                                      // NOI18N
+                TimeUnit.SECONDS.toMillis(5)));
+
+    static {
+        Metrics.getInstance().gauge("cache.unfinishedruns.hits", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getHitCount();
+                }
+            });
+        Metrics.getInstance().gauge("cache.unfinishedruns.misses", new Gauge() { // NOI18N
+
+                @Override
+                public long getValue() {
+                    return INSTANCE.getMissCount();
+                }
+            });
+    }
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final long ttl;
+    private final ConcurrentHashMap<String, Flight> flights;
+    private final AtomicLong generation;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new UnfinishedRunCache object.
+     *
+     * @param  ttl  the time to live of a result in milliseconds
+     */
+    private UnfinishedRunCache(final long ttl) {
+        this.ttl = ttl;
+        this.flights = new ConcurrentHashMap<String, Flight>();
+        this.generation = new AtomicLong(0);
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide unfinished run cache.
+     *
+     * @return  the unfinished run cache
+     */
+    public static UnfinishedRunCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Whether results are cached at all.
+     *
+     * @return  <code>false</code> if the time to live is not positive
+     */
+    public boolean isEnabled() {
+        return ttl > 0;
+    }
+
+    /**
+     * Provides the unfinished runs visible to the given user. If there is neither a valid result nor a search in
+     * flight for the user and the variant the given search is executed by the calling thread.
+     *
+     * @param   user     the user
+     * @param   variant  the settings of the search that change its result, searches of the same user share a result
+     *                   only if their variants are equal
+     * @param   search   performs the search if necessary
+     *
+     * @return  a copy of the result
+     *
+     * @throws  InterruptedException  if the current thread was interrupted while waiting for the result
+     * @throws  Exception             if the search failed
+     */
+    FederatedSearchResult<MetaObject> get(final User user,
+            final String variant,
+            final Callable<FederatedSearchResult<MetaObject>> search) throws Exception {
+        // the visible runs depend on the permissions of the user group, not only on the login
+        final String key = MetaClassCache.permissionKey(user) + "|" + variant; // NOI18N
+
+        Flight flight = flights.get(key);
+        if ((flight != null) && flight.isExpired()) {
+            flights.remove(key, flight);
+            flight = null;
+        }
+
+        if (flight == null) {
+            final Flight created = new Flight(search, generation.get());
+            flight = flights.putIfAbsent(key, created);
+            if (flight == null) {
+                misses.incrementAndGet();
+                flight = created;
+                try {
+                    created.task.run();
+                } finally {
+                    // results that are incomplete or were overtaken by a change are not kept for later searches
+                    if (!created.complete(ttl) || (created.generation != generation.get())) {
+                        flights.remove(key, created);
+                    }
+                }
+            } else {
+                hits.incrementAndGet();
+            }
+        } else {
+            hits.incrementAndGet();
+        }
+
+        try {
+            return copy(flight.task.get());
+        } catch (final ExecutionException ex) {
+            flights.remove(key, flight);
+            if (ex.getCause() instanceof Exception) {
+                throw (Exception)ex.getCause();
+            } else {
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Discards all results, e.g. because a run was inserted, changed or deleted.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        flights.clear();
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("unfinished run cache invalidated"); // NOI18N
+        }
+    }
+
+    /**
+     * The amount of searches that were served by a cached or coalesced result.
+     *
+     * @return  the amount of cache hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * The amount of searches that had to fan out to the domains.
+     *
+     * @return  the amount of cache misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Creates a copy of the given result so that callers cannot change the shared result.
+     *
+     * @param   result  the result
+     *
+     * @return  the copy
+     */
+    private static FederatedSearchResult<MetaObject> copy(final FederatedSearchResult<MetaObject> result) {
+        final FederatedSearchResult<MetaObject> copy = new FederatedSearchResult<MetaObject>();
+        copy.addAll(result);
+        for (final Map.Entry<String, DomainStatus> entry : result.getDomainStatus().entrySet()) {
+            copy.setDomainStatus(entry.getKey(), entry.getValue());
+        }
+
+        return copy;
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * A search in flight or its finished result.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class Flight {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final FutureTask<FederatedSearchResult<MetaObject>> task;
+        private final long generation;
+        private volatile long expires;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new Flight object.
+         *
+         * @param  search      the search
+         * @param  generation  the generation of the cache when the search started
+         */
+        Flight(final Callable<FederatedSearchResult<MetaObject>> search, final long generation) {
+            this.task = new FutureTask<FederatedSearchResult<MetaObject>>(search);
+            this.generation = generation;
+            this.expires = Long.MAX_VALUE;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * Starts the time to live of the finished search.
+         *
+         * @param   ttl  the time to live in milliseconds
+         *
+         * @return  <code>true</code> if the search delivered a complete result that may be kept
+         */
+        boolean complete(final long ttl) {
+            expires = System.currentTimeMillis() + ttl;
+            try {
+                return task.isDone() && !task.isCancelled() && task.get().isComplete();
+            } catch (final Exception ex) {
+                return false;
+            }
+        }
+
+        /**
+         * Whether the time to live of the finished search passed.
+         *
+         * @return  <code>true</code> if the result must not be used anymore
+         */
+        boolean isExpired() {
+            return expires <= System.currentTimeMillis();
+        }
+    }
+}
@@ -13,22 +13,31 @@ import Sirius.server.middleware.types.MetaObject;
 
 import org.apache.log4j.Logger;
 
-import java.rmi.RemoteException;
+import java.sql.Timestamp;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
-import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+import de.cismet.cids.custom.sudplan.server.search.ParallelMetaObjectLoader.ChunkFailure;
 
 import de.cismet.cids.server.search.AbstractCidsServerSearch;
 
 /**
- * DOCUMENT ME!
+ * Searches the unfinished runs of every SUDPLAN domain. If a page size is set the runs are delivered in pages, the
+ * domains are paged through one after another in the order of their names and the runs of a domain in the order of
+ * their ids, see {@link SearchPage}. If watermarks are set the search runs incrementally and only delivers the runs
+ * that started or finished since the watermark of their domain, see {@link ChangeFeedResult}.
  *
  * @author   martin.scholl@cismet.de
  * @version  $Revision$, $Date$
@@ -37,62 +46,504 @@ public final class UnfinishedRunSearchStatement extends AbstractCidsServerSearch
 
     //~ Static fields/initializers ---------------------------------------------
 
-    private static final String STMT_SEARCH_UNFINISHED_RUNS =
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.search.runsearch."; // NOI18N
+
+    static final String STMT_SEARCH_UNFINISHED_RUNS =
         "SELECT id FROM run WHERE finished IS NULL AND started IS NOT NULL"; // NOI18N
-    private static final String STMT_TEST_SUDPLAN_SYSTEM = "SELECT r.id, mi.id, mo.id, m.id "
+    private static final String STMT_SEARCH_CHANGED_RUNS =
+        "SELECT id, GREATEST(started, finished) FROM run WHERE started >= %1$s OR finished >= %1$s"; // NOI18N
+    private static final String STMT_RUN_WATERMARK = "SELECT max(GREATEST(started, finished)) FROM run"; // NOI18N
+    static final String STMT_TEST_SUDPLAN_SYSTEM = "SELECT r.id, mi.id, mo.id, m.id "
                 + "FROM run r, modelinput mi, modeloutput mo, model m "
                 + "LIMIT 1";
 
+    /** the prefix of the names of the metrics of this search. */
+    private static final String METRICS_PREFIX = "runs."; // NOI18N
+
+    /** how often a page may fail at the same position of a domain before the domain is passed over. */
+    static final int MAX_PAGE_FAILURES = 3;
+
+    /**
+     * how far in milliseconds an incremental search looks back behind the watermark. The timestamps of the runs are
+     * written by the clients, a run that is committed late or by a client with a clock running behind may carry a
+     * timestamp below the watermark.
+     */
+    static final long WATERMARK_OVERLAP = Long.getLong(PROP_PREFIX + "watermarkOverlap", // NOI18N
+            TimeUnit.MINUTES.toMillis(5));
+
     private static final transient Logger LOG = Logger.getLogger(UnfinishedRunSearchStatement.class);
 
+    //~ Instance fields --------------------------------------------------------
+
+    private int chunkSize;
+    private int parallelism;
+    private ChunkFailurePolicy chunkFailurePolicy;
+    private long domainTimeout;
+    private int pageSize;
+    private SearchCursor cursor;
+    private HashMap<String, Date> watermarks;
+    private boolean useCache;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new UnfinishedRunSearchStatement object that materialises the runs of a domain in chunks of
+     * {@link MetaObjectLoader#DEFAULT_CHUNK_SIZE} using up to 4 threads per domain and skips chunks that fail. Every
+     * domain has 2 minutes to deliver its runs.
+     */
+    public UnfinishedRunSearchStatement() {
+        this.chunkSize = MetaObjectLoader.DEFAULT_CHUNK_SIZE;
+        this.parallelism = 4;
+        this.chunkFailurePolicy = ChunkFailurePolicy.SKIP_CHUNK;
+        this.domainTimeout = TimeUnit.MINUTES.toMillis(2);
+        this.useCache = true;
+    }
+
     //~ Methods ----------------------------------------------------------------
 
+    /**
+     * Getter for the amount of runs that are materialised together.
+     *
+     * @return  the chunk size
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Setter for the amount of runs that are materialised together.
+     *
+     * @param   chunkSize  the chunk size
+     *
+     * @throws  IllegalArgumentException  if the chunk size is not positive
+     */
+    public void setChunkSize(final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize); // NOI18N
+        }
+
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Getter for the maximum amount of threads that materialise the runs of a single domain.
+     *
+     * @return  the parallelism per domain
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Setter for the maximum amount of threads that materialise the runs of a single domain.
+     *
+     * @param   parallelism  the parallelism per domain
+     *
+     * @throws  IllegalArgumentException  if the parallelism is not positive
+     */
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism); // NOI18N
+        }
+
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Getter for the reaction to a chunk of runs that cannot be materialised.
+     *
+     * @return  the chunk failure policy
+     */
+    public ChunkFailurePolicy getChunkFailurePolicy() {
+        return chunkFailurePolicy;
+    }
+
+    /**
+     * Setter for the reaction to a chunk of runs that cannot be materialised.
+     *
+     * @param   chunkFailurePolicy  the chunk failure policy
+     *
+     * @throws  IllegalArgumentException  if the policy is null
+     */
+    public void setChunkFailurePolicy(final ChunkFailurePolicy chunkFailurePolicy) {
+        if (chunkFailurePolicy == null) {
+            throw new IllegalArgumentException("chunkFailurePolicy must not be null"); // NOI18N
+        }
+
+        this.chunkFailurePolicy = chunkFailurePolicy;
+    }
+
+    /**
+     * Getter for the time in milliseconds every domain has to deliver its runs.
+     *
+     * @return  the timeout per domain in milliseconds
+     */
+    public long getDomainTimeout() {
+        return domainTimeout;
+    }
+
+    /**
+     * Setter for the time in milliseconds every domain has to deliver its runs. The runs of a domain that does not
+     * finish in time are left out and the domain is reported as {@link DomainStatus#TIMED_OUT}.
+     *
+     * @param   domainTimeout  the timeout per domain in milliseconds
+     *
+     * @throws  IllegalArgumentException  if the timeout is not positive
+     */
+    public void setDomainTimeout(final long domainTimeout) {
+        if (domainTimeout < 1) {
+            throw new IllegalArgumentException("domainTimeout must be positive: " + domainTimeout); // NOI18N
+        }
+
+        this.domainTimeout = domainTimeout;
+    }
+
+    /**
+     * Getter for the maximum amount of runs per page.
+     *
+     * @return  the page size or <code>0</code> if all runs are delivered at once
+     */
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Setter for the maximum amount of runs per page. The result is a {@link SearchPage} then. Only the domains that
+     * contribute to the page are queried.
+     *
+     * @param   pageSize  the page size or <code>0</code> to deliver all runs at once
+     *
+     * @throws  IllegalArgumentException  if the page size is negative
+     */
+    public void setPageSize(final int pageSize) {
+        if (pageSize < 0) {
+            throw new IllegalArgumentException("pageSize must not be negative: " + pageSize); // NOI18N
+        }
+
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Getter for the position the page starts after.
+     *
+     * @return  the cursor or <code>null</code> if the first page is requested
+     */
+    public SearchCursor getCursor() {
+        return cursor;
+    }
+
+    /**
+     * Setter for the position the page starts after, usually the next cursor of the previous page.
+     *
+     * @param  cursor  the cursor or <code>null</code> to request the first page
+     */
+    public void setCursor(final SearchCursor cursor) {
+        this.cursor = cursor;
+    }
+
+    /**
+     * Getter for the watermarks of an incremental search.
+     *
+     * @return  the watermark per domain or <code>null</code> if the search is not incremental
+     */
+    public Map<String, Date> getWatermarks() {
+        return (watermarks == null) ? null : Collections.unmodifiableMap(watermarks);
+    }
+
+    /**
+     * Setter for the watermarks of an incremental search, usually the watermarks of the previous result. The result is
+     * a {@link ChangeFeedResult} then, the page size is ignored. A domain with a watermark delivers the runs that
+     * started or finished since then, including runs that just finished so that the caller can remove them. A domain
+     * without a watermark delivers all of its unfinished runs as the initial state.<br/>
+     * <br/>
+     * The timestamps of the runs are written by the clients and not by the database, so a run may become visible with
+     * a timestamp below the watermark, e.g. if its transaction commits late or the clock of its client runs behind.
+     * Hence a domain delivers the runs that changed since its watermark minus a safety overlap of
+     * {@link #WATERMARK_OVERLAP} milliseconds, configurable via the system property <code>watermarkOverlap</code> with
+     * the prefix {@link #PROP_PREFIX}. Runs that changed within the overlap are delivered again, so the caller has to
+     * treat the runs as updates by id. A change that becomes visible later than the overlap after its timestamp is not
+     * delivered.
+     *
+     * @param  watermarks  the watermark per domain, an empty map for the initial search or <code>null</code> to turn
+     *                     the incremental mode off
+     */
+    public void setWatermarks(final Map<String, Date> watermarks) {
+        this.watermarks = (watermarks == null) ? null : new HashMap<String, Date>(watermarks);
+    }
+
+    /**
+     * Getter for whether the result may be served by the {@link UnfinishedRunCache}.
+     *
+     * @return  <code>true</code> if the cache is used
+     */
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    /**
+     * Setter for whether the result may be served by the {@link UnfinishedRunCache}. Only searches without page size
+     * and watermarks use the cache. A result may be a few seconds old then, a search that needs the current state
+     * turns the cache off.
+     *
+     * @param  useCache  whether the cache is used
+     */
+    public void setUseCache(final boolean useCache) {
+        this.useCache = useCache;
+    }
+
     @Override
     public Collection performServerSearch() {
-        final ExecutorService searcher = Executors.newCachedThreadPool(
-                SudplanConcurrency.createThreadFactory("unfinished-run-search")); // NOI18N
+        final SearchExecutor searcher = SearchExecutor.getInstance();
+        // the fetchers share the executor with their chunk helpers, the loader never blocks on helpers that did not
+        // start
+        final ParallelMetaObjectLoader loader = new ParallelMetaObjectLoader(
+                searcher,
+                parallelism,
+                chunkSize,
+                chunkFailurePolicy);
 
         final Map map = getActiveLocalServers();
-        final ArrayList<RunFetcher> fetchers = new ArrayList<RunFetcher>(map.size());
+
+        final long start = System.nanoTime();
+        try {
+            if ((pageSize > 0) && (watermarks == null)) {
+                return searchPage(searcher, loader, map);
+            } else if ((watermarks == null) && useCache && UnfinishedRunCache.getInstance().isEnabled()) {
+                // concurrent searches of the same user share a single fan out
+                final Callable<FederatedSearchResult<MetaObject>> search =
+                    new Callable<FederatedSearchResult<MetaObject>>() {
+
+                        @Override
+                        public FederatedSearchResult<MetaObject> call() throws Exception {
+                            return searchAll(searcher, loader, map);
+                        }
+                    };
+
+                return UnfinishedRunCache.getInstance().get(getUser(), cacheVariant(map), search);
+            } else {
+                return searchAll(searcher, loader, map);
+            }
+        } catch (final InterruptedException ex) {
+            LOG.error("waiting for the fetchers was interrupted, search unsuccessful, returning null"); // NOI18N
+            Thread.currentThread().interrupt();
+
+            return null;
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            LOG.error("unfinished run search failed, returning null", ex);                             // NOI18N
+
+            return null;
+        } finally {
+            Metrics.getInstance().stop(METRICS_PREFIX + "search", start); // NOI18N
+        }
+    }
+
+    /**
+     * Describes the settings of this search that change its result, so that the {@link UnfinishedRunCache} only shares
+     * results between searches with equal settings: the chunk failure policy, the chunk size, the timeout and the
+     * queried domains.
+     *
+     * @param   map  the active local servers
+     *
+     * @return  the variant of this search
+     */
+    private String cacheVariant(final Map map) {
+        final List<String> domains = new ArrayList<String>(map.size());
+        for (final Object o : map.keySet()) {
+            domains.add((String)o);
+        }
+        Collections.sort(domains);
+
+        return chunkFailurePolicy + "/" + chunkSize + "/" + domainTimeout + "/" + domains; // NOI18N
+    }
+
+    /**
+     * Fetches the unfinished or, in incremental mode, the changed runs of all domains concurrently.
+     *
+     * @param   searcher  the executor to run the fetchers
+     * @param   loader    the loader materialising the runs
+     * @param   map       the active local servers
+     *
+     * @return  the runs of all domains
+     *
+     * @throws  InterruptedException  if the current thread was interrupted while waiting for the fetchers
+     */
+    private FederatedSearchResult<MetaObject> searchAll(final SearchExecutor searcher,
+            final ParallelMetaObjectLoader loader,
+            final Map map) throws InterruptedException {
+        final Map<String, RunFetcher> fetchers = new LinkedHashMap<String, RunFetcher>(map.size());
+        final DomainFanOut<List<MetaObject>> fanOut = new DomainFanOut<List<MetaObject>>(
+                searcher,
+                domainTimeout,
+                TimeUnit.MILLISECONDS);
         for (final Object o : map.keySet()) {
             final String domain = (String)o;
             final MetaService ms = (MetaService)map.get(domain);
 
-            final RunFetcher fetcher = new RunFetcher(ms, domain);
-            // keep track of the fetchers since we want to know the results afterwards
-            fetchers.add(fetcher);
-            // we don't need the future since we'return going to shutdown the service anyway
-            searcher.submit(fetcher);
+            final RunFetcher fetcher;
+            if (watermarks == null) {
+                fetcher = new RunFetcher(ms, domain, loader, Integer.MIN_VALUE, 0, false, null);
+            } else {
+                fetcher = new RunFetcher(ms, domain, loader, Integer.MIN_VALUE, 0, true, watermarks.get(domain));
+            }
+            // keep track of the fetchers since we want to know their details afterwards
+            fetchers.put(domain, fetcher);
+            fanOut.submit(domain, fetcher);
         }
 
-        searcher.shutdown();
-        // we wait for the searcher to shutdown and bail out returning null if there is any abnormal termination
-        try {
-            if (!searcher.awaitTermination(2, TimeUnit.MINUTES)) {
-                LOG.error("the searches did not finish within 2 minutes, search unsuccessful, returning null"); // NOI18N
+        final Map<String, List<MetaObject>> results = fanOut.await();
+
+        // domains that did not finish in time or failed are reported, the others contribute to the result
+        final FederatedSearchResult<MetaObject> unfinished = (watermarks == null)
+            ? new FederatedSearchResult<MetaObject>() : new ChangeFeedResult<MetaObject>();
+        for (final Map.Entry<String, DomainStatus> entry : fanOut.getStatus().entrySet()) {
+            final String domain = entry.getKey();
+            final RunFetcher fetcher = fetchers.get(domain);
 
-                return null;
+            final DomainStatus status = statusOf(entry.getValue(), fetcher);
+            if ((DomainStatus.OK == status) || (DomainStatus.PARTIAL == status)) {
+                unfinished.addAll(results.get(domain));
             }
-        } catch (final InterruptedException ex) {
-            LOG.error("waiting for the searcher pool was interrupted, search unsuccessful, returning null"); // NOI18N
 
-            return null;
+            unfinished.setDomainStatus(domain, status);
+            if (watermarks != null) {
+                // the watermark only advances if every change was delivered, otherwise the changes are delivered again
+                ((ChangeFeedResult<MetaObject>)unfinished).setWatermark(
+                    domain,
+                    (DomainStatus.OK == status) ? fetcher.getWatermark() : watermarks.get(domain));
+            }
         }
 
-        final ArrayList<MetaObject> unfinished = new ArrayList<MetaObject>();
-        for (final RunFetcher fetcher : fetchers) {
-            if (fetcher.getException() == null) {
-                unfinished.addAll(fetcher.getResult());
-            } else {
-                LOG.error(
-                    "at least one RunFetcher terminated abnormally, search unsuccessful, returning", // NOI18N
-                    fetcher.getException());
+        if (!unfinished.isComplete()) {
+            LOG.warn("unfinished run search returns partial results: " + unfinished.getDomainStatus()); // NOI18N
+        }
 
-                return null;
+        return unfinished;
+    }
+
+    /**
+     * Fetches a single page of runs. The domains are queried one after another, each with the remaining size of the
+     * page, until the page is full. The status of every queried domain is reported with the page. The runs of a domain
+     * that skipped chunks are delivered and the page continues after them, the runs of the skipped chunks are missing
+     * then. A domain that fails or does not answer in time ends the page and the next cursor retries the domain at
+     * the same position. After {@link #MAX_PAGE_FAILURES} failed attempts at a position the search gives up on the
+     * domain and continues with the next one, so a domain that is down for good does not block the paging.
+     *
+     * @param   searcher  the executor to run the fetchers
+     * @param   loader    the loader materialising the runs
+     * @param   map       the active local servers
+     *
+     * @return  the page
+     *
+     * @throws  InterruptedException  if the current thread was interrupted while waiting for a fetcher
+     */
+    private SearchPage<MetaObject> searchPage(final SearchExecutor searcher,
+            final ParallelMetaObjectLoader loader,
+            final Map map) throws InterruptedException {
+        final List<String> domains = new ArrayList<String>(map.size());
+        for (final Object o : map.keySet()) {
+            domains.add((String)o);
+        }
+        Collections.sort(domains);
+
+        // a domain that left in the meantime is continued with the domain following it
+        int index = 0;
+        while ((cursor != null) && (index < domains.size()) && (domains.get(index).compareTo(cursor.getDomain()) < 0)) {
+            ++index;
+        }
+
+        final SearchPage<MetaObject> page = new SearchPage<MetaObject>();
+        int remaining = pageSize;
+        while ((index < domains.size()) && (remaining > 0)) {
+            final String domain = domains.get(index);
+            final int after = ((cursor != null) && domain.equals(cursor.getDomain())) ? cursor.getLastId()
+                                                                                       : Integer.MIN_VALUE;
+            final RunFetcher fetcher = new RunFetcher(
+                    (MetaService)map.get(domain),
+                    domain,
+                    loader,
+                    after,
+                    remaining,
+                    false,
+                    null);
+            final DomainFanOut<List<MetaObject>> fanOut = new DomainFanOut<List<MetaObject>>(
+                    searcher,
+                    domainTimeout,
+                    TimeUnit.MILLISECONDS);
+            fanOut.submit(domain, fetcher);
+            final Map<String, List<MetaObject>> results = fanOut.await();
+
+            final DomainStatus status = statusOf(fanOut.getStatus().get(domain), fetcher);
+            page.setDomainStatus(domain, status);
+            if ((DomainStatus.OK == status) || (DomainStatus.PARTIAL == status)) {
+                page.addAll(results.get(domain));
+                remaining -= fetcher.getFetchedCount();
             }
+
+            if ((DomainStatus.FAILED == status) || (DomainStatus.TIMED_OUT == status)
+                        || (DomainStatus.CANCELLED == status)) {
+                final int failures = 1
+                            + (((cursor != null) && domain.equals(cursor.getDomain())) ? cursor.getFailures() : 0);
+                if (failures < MAX_PAGE_FAILURES) {
+                    // the domain is retried at the same position with the next page
+                    page.setNextCursor(new SearchCursor(domain, after, failures));
+                    LOG.warn("unfinished run search ends page at domain " + domain + ": " // NOI18N
+                                + page.getDomainStatus());
+
+                    return page;
+                }
+
+                LOG.error("unfinished run search gives up on domain " + domain + " after " + failures // NOI18N
+                            + " failed attempts, continuing with the next domain");                 // NOI18N
+                ++index;
+                continue;
+            }
+
+            if (fetcher.hasMore()) {
+                page.setNextCursor(new SearchCursor(domain, fetcher.getLastId()));
+
+                return page;
+            }
+
+            ++index;
         }
 
-        return unfinished;
+        if (index < domains.size()) {
+            page.setNextCursor(SearchCursor.startOf(domains.get(index)));
+        }
+
+        if (!page.isComplete()) {
+            LOG.warn("unfinished run search returns partial page: " + page.getDomainStatus()); // NOI18N
+        }
+
+        return page;
+    }
+
+    /**
+     * Determines the status of a domain from the status of its fetch and the outcome reported by the fetcher.
+     *
+     * @param   status   the status of the fetch
+     * @param   fetcher  the fetcher of the domain
+     *
+     * @return  the status of the domain
+     */
+    private static DomainStatus statusOf(final DomainStatus status, final RunFetcher fetcher) {
+        if (DomainStatus.OK != status) {
+            return status;
+        } else if (fetcher.isSkipped()) {
+            return DomainStatus.SKIPPED;
+        } else if (!fetcher.getFailures().isEmpty()) {
+            for (final ChunkFailure failure : fetcher.getFailures()) {
+                LOG.warn("skipped runs " + failure.getFrom() + " to " + failure.getTo() // NOI18N
+                            + " of domain " + fetcher.domain,                           // NOI18N
+                    failure.getCause());
+            }
+
+            return DomainStatus.PARTIAL;
+        } else {
+            return DomainStatus.OK;
+        }
     }
 
     //~ Inner Classes ----------------------------------------------------------
@@ -102,103 +553,265 @@ public final class UnfinishedRunSearchStatement extends AbstractCidsServerSearch
      *
      * @version  $Revision$, $Date$
      */
-    private final class RunFetcher implements Runnable {
+    private final class RunFetcher implements Callable<List<MetaObject>> {
 
         //~ Instance fields ----------------------------------------------------
 
         private final transient MetaService ms;
         private final transient String domain;
 
-        private final transient List<MetaObject> result;
-        private transient Exception exception;
+        private final transient ParallelMetaObjectLoader loader;
+        private final transient int afterId;
+        private final transient int limit;
+        private final transient boolean incremental;
+        private final transient Date since;
+
+        private final transient List<ChunkFailure> failures;
+        private transient volatile boolean skipped;
+        private transient volatile boolean more;
+        private transient volatile int fetchedCount;
+        private transient volatile int lastId;
+        private transient volatile Date watermark;
 
         //~ Constructors -------------------------------------------------------
 
         /**
          * Creates a new RunFetcher object.
          *
-         * @param  ms      DOCUMENT ME!
-         * @param  domain  DOCUMENT ME!
+         * @param  ms           DOCUMENT ME!
+         * @param  domain       DOCUMENT ME!
+         * @param  loader       DOCUMENT ME!
+         * @param  afterId      only runs with a greater id are fetched
+         * @param  limit        the maximum amount of runs to fetch or <code>0</code> to fetch all runs
+         * @param  incremental  whether the changed runs are fetched instead of the unfinished runs
+         * @param  since        the watermark of an incremental fetch or <code>null</code> for the initial fetch
          */
-        RunFetcher(final MetaService ms, final String domain) {
+        RunFetcher(final MetaService ms,
+                final String domain,
+                final ParallelMetaObjectLoader loader,
+                final int afterId,
+                final int limit,
+                final boolean incremental,
+                final Date since) {
             this.ms = ms;
             this.domain = domain;
-            this.exception = null;
-            this.result = new ArrayList<MetaObject>();
+            this.loader = loader;
+            this.afterId = afterId;
+            this.limit = limit;
+            this.incremental = incremental;
+            this.since = since;
+            this.watermark = since;
+            this.skipped = false;
+            this.failures = Collections.synchronizedList(new ArrayList<ChunkFailure>());
         }
 
         //~ Methods ------------------------------------------------------------
 
         /**
-         * DOCUMENT ME!
+         * Provides the chunks that could not be materialised if the policy is {@link ChunkFailurePolicy#SKIP_CHUNK}.
          *
-         * @return  DOCUMENT ME!
+         * @return  the skipped chunks
          */
-        List<MetaObject> getResult() {
-            return result;
+        List<ChunkFailure> getFailures() {
+            return failures;
         }
 
         /**
-         * DOCUMENT ME!
+         * Whether the domain was ignored because it is not a sudplan system.
          *
          * @return  DOCUMENT ME!
          */
-        Exception getException() {
-            return exception;
+        boolean isSkipped() {
+            return skipped;
+        }
+
+        /**
+         * Whether the domain has more runs than the limit.
+         *
+         * @return  <code>true</code> if the limit cut off further runs
+         */
+        boolean hasMore() {
+            return more;
+        }
+
+        /**
+         * The amount of runs that were fetched, including the runs of skipped chunks.
+         *
+         * @return  the amount of fetched runs
+         */
+        int getFetchedCount() {
+            return fetchedCount;
+        }
+
+        /**
+         * The id of the last fetched run, including the runs of skipped chunks.
+         *
+         * @return  the id of the last fetched run
+         */
+        int getLastId() {
+            return lastId;
+        }
+
+        /**
+         * The watermark after an incremental fetch: the latest start or finish time of the runs of the domain.
+         *
+         * @return  the new watermark or the given one if nothing changed
+         */
+        Date getWatermark() {
+            return watermark;
+        }
+
+        /**
+         * Fetches the ids of the unfinished runs, restricted to the limit if there is one.
+         *
+         * @return  the ids of the unfinished runs
+         *
+         * @throws  Exception  if the query fails
+         */
+        private int[] fetchUnfinishedIds() throws Exception {
+            final ArrayList<ArrayList> results = ms.performCustomSearch((limit > 0)
+                        ? new SearchCursor(domain, afterId).restrict(STMT_SEARCH_UNFINISHED_RUNS, true, limit)
+                        : STMT_SEARCH_UNFINISHED_RUNS);
+            // a limited query delivers one more id than requested if there are more runs
+            more = (limit > 0) && (results.size() > limit);
+            final int[] ids = new int[more ? limit : results.size()];
+
+            for (int i = 0; i < ids.length; ++i) {
+                final ArrayList al = results.get(i);
+                ids[i] = (Integer)al.get(0);
+            }
+            fetchedCount = ids.length;
+            lastId = (ids.length == 0) ? afterId : ids[ids.length - 1];
+
+            return ids;
+        }
+
+        /**
+         * Fetches the ids of the runs that started or finished since the watermark minus the
+         * {@link #WATERMARK_OVERLAP} and advances the watermark to the latest timestamp seen. Without a watermark the
+         * ids of the unfinished runs are fetched and the watermark is initialised, it is read first so that no change
+         * between both queries is lost. Every id is delivered once.
+         *
+         * @return  the ids of the changed runs
+         *
+         * @throws  Exception  if a query fails
+         */
+        private int[] fetchChangedIds() throws Exception {
+            final ArrayList<ArrayList> results;
+            if (since == null) {
+                final ArrayList<ArrayList> max = ms.performCustomSearch(STMT_RUN_WATERMARK);
+                watermark = (max.isEmpty() || (max.get(0).get(0) == null)) ? null : (Date)max.get(0).get(0);
+                results = ms.performCustomSearch(STMT_SEARCH_UNFINISHED_RUNS);
+            } else {
+                // look back behind the watermark for runs that became visible late, Timestamp keeps the fractions of
+                // a millisecond the watermark was read with
+                final Timestamp from = new Timestamp(since.getTime() - WATERMARK_OVERLAP);
+                if (since instanceof Timestamp) {
+                    from.setNanos(from.getNanos() + (((Timestamp)since).getNanos() % 1000000));
+                }
+                final String literal = SqlLiterals.quote(from.toString());
+                results = ms.performCustomSearch(String.format(STMT_SEARCH_CHANGED_RUNS, literal));
+                Date latest = since;
+                for (final ArrayList row : results) {
+                    final Date changed = (Date)row.get(1);
+                    if ((changed != null) && changed.after(latest)) {
+                        latest = changed;
+                    }
+                }
+                watermark = latest;
+            }
+
+            final Set<Integer> unique = new LinkedHashSet<Integer>(results.size());
+            for (final ArrayList row : results) {
+                unique.add((Integer)row.get(0));
+            }
+            final int[] ids = new int[unique.size()];
+            int i = 0;
+            for (final Integer id : unique) {
+                ids[i++] = id;
+            }
+
+            return ids;
         }
 
         @Override
-        public void run() {
-            // test if the server is a sudplan compatible server and has at least one entry in every relevant table
+        public List<MetaObject> call() throws Exception {
+            final Metrics metrics = Metrics.getInstance();
+            final long start = System.nanoTime();
+            boolean failed = true;
             try {
-                final Object o = ms.performCustomSearch(STMT_TEST_SUDPLAN_SYSTEM);
-            } catch (RemoteException ex) {
-                // we caught an exception so we ignore this server
-                LOG.info("RunFetcher: ignoring server since test for sudplan system failed: " + domain, ex); // NOI18N
+                final List<MetaObject> runs = fetch(metrics, start);
+                metrics.add(METRICS_PREFIX + "results", runs.size()); // NOI18N
+                failed = false;
+
+                return runs;
+            } finally {
+                metrics.stop(METRICS_PREFIX + "domain." + domain, start); // NOI18N
+                if (failed) {
+                    metrics.increment(METRICS_PREFIX + "errors");              // NOI18N
+                    metrics.increment(METRICS_PREFIX + "errors." + domain);    // NOI18N
+                }
+            }
+        }
 
-                return;
+        /**
+         * Fetches the runs of the domain and records the duration of every phase.
+         *
+         * @param   metrics  the metrics
+         * @param   start    the start of the fetch as obtained by {@link System#nanoTime()}
+         *
+         * @return  the runs
+         *
+         * @throws  Exception  if a phase fails
+         */
+        private List<MetaObject> fetch(final Metrics metrics, final long start) throws Exception {
+            // test if the server is a sudplan compatible server and has at least one entry in every relevant table, the
+            // outcome is cached per domain so the probe is not executed on every search
+            final boolean capable = DomainCapabilityCache.getInstance().isCapable(domain, ms, STMT_TEST_SUDPLAN_SYSTEM);
+            long phase = metrics.stop(METRICS_PREFIX + "phase.probe", start); // NOI18N
+            if (!capable) {
+                // the test failed so we ignore this server
+                LOG.info("RunFetcher: ignoring server since test for sudplan system failed: " + domain); // NOI18N
+                skipped = true;
+
+                return new ArrayList<MetaObject>(0);
             }
 
             // test was successful, now fetch RUN metaclass id
-            final int runClassId;
+            final MetaClass runClass;
             try {
-                final MetaClass runClass = ms.getClassByTableName(getUser(), "run"); // NOI18N
-                runClassId = runClass.getID();
+                runClass = MetaClassCache.getInstance().getClassByTableName(domain, ms, getUser(), "run"); // NOI18N
             } catch (final Exception ex) {
-                LOG.error("cannot fetch run metaclass", ex);                         // NOI18N
-                exception = ex;
+                LOG.error("cannot fetch run metaclass", ex);                                               // NOI18N
 
-                return;
+                throw ex;
             }
+            phase = metrics.stop(METRICS_PREFIX + "phase.metaclass", phase); // NOI18N
 
             // now search for the runs
             final int[] runObjectIds;
             try {
-                final ArrayList<ArrayList> results = ms.performCustomSearch(STMT_SEARCH_UNFINISHED_RUNS);
-                runObjectIds = new int[results.size()];
-
-                for (int i = 0; i < results.size(); ++i) {
-                    final ArrayList al = results.get(i);
-                    runObjectIds[i] = (Integer)al.get(0);
-                }
+                runObjectIds = incremental ? fetchChangedIds() : fetchUnfinishedIds();
             } catch (final Exception e) {
-                LOG.error("cannot fetch unfinished runs", e); // NOI18N
-                exception = e;
+                LOG.error("cannot fetch " + (incremental ? "changed" : "unfinished") + " runs", e); // NOI18N
 
-                return;
+                throw e;
             }
+            phase = metrics.stop(METRICS_PREFIX + "phase.ids", phase); // NOI18N
 
-            // finally build cidsbeans from the results
+            // finally build cidsbeans from the results, chunk failures are handled according to the policy
             try {
-                for (final int runObjectId : runObjectIds) {
-                    final MetaObject run = ms.getMetaObject(getUser(), runObjectId, runClassId);
-                    result.add(run);
-                }
+                return loader.load(ms, getUser(), runClass, runObjectIds, failures);
+            } catch (final InterruptedException e) {
+                LOG.warn("materialisation of runs was cancelled: " + domain); // NOI18N
+
+                throw e;
             } catch (final Exception e) {
                 LOG.error("cannot create metaobjects from found results", e); // NOI18N
-                exception = e;
 
-                return;
+                throw e;
+            } finally {
+                metrics.stop(METRICS_PREFIX + "phase.materialise", phase); // NOI18N
             }
         }
     }
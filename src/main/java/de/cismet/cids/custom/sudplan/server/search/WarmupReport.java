@@ -0,0 +1,90 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import java.io.Serializable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The outcome of a {@link WarmupSearch}: the time every step of the warm-up took, in the order the steps finished, and
+ * the time of the whole warm-up.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class WarmupReport implements Serializable {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final long serialVersionUID = -3081664752617092834L;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final LinkedHashMap<String, Long> timings;
+    private long duration;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new WarmupReport object.
+     */
+    WarmupReport() {
+        this.timings = new LinkedHashMap<String, Long>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * The time every step took.
+     *
+     * @return  the duration in milliseconds per step
+     */
+    public Map<String, Long> getTimings() {
+        synchronized (timings) {
+            return Collections.unmodifiableMap(new LinkedHashMap<String, Long>(timings));
+        }
+    }
+
+    /**
+     * The time the whole warm-up took. As the domains are warmed up concurrently it is usually less than the sum of
+     * the timings of the steps.
+     *
+     * @return  the duration in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Records the time a step took. Steps may be recorded from several threads at once.
+     *
+     * @param  step    the name of the step
+     * @param  millis  the duration in milliseconds
+     */
+    void record(final String step, final long millis) {
+        synchronized (timings) {
+            timings.put(step, millis);
+        }
+    }
+
+    /**
+     * Records the time the whole warm-up took.
+     *
+     * @param  duration  the duration in milliseconds
+     */
+    void setDuration(final long duration) {
+        this.duration = duration;
+    }
+
+    @Override
+    public String toString() {
+        return "warm-up took " + duration + " ms: " + getTimings(); // NOI18N
+    }
+}
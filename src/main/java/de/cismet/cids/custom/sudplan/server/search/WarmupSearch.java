@@ -0,0 +1,324 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.newuser.User;
+
+import org.apache.log4j.Logger;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+import de.cismet.cids.custom.sudplan.server.trigger.TimeSeriesFiles;
+
+import de.cismet.cids.server.search.AbstractCidsServerSearch;
+
+/**
+ * Warms the server up after a restart so that the first user searches do not pay for the lazy initialisation. It
+ * probes every domain once whether it is a sudplan system, resolves the <code>MetaClass</code> of the runs in every
+ * capable domain and the <code>MetaClass</code> of the emission databases, opens a few WebDAV connections and, unless
+ * turned off, runs every server search once with a minimal result. The domains are warmed up concurrently.<br/>
+ * <br/>
+ * The result contains a single {@link WarmupReport} with the time every step took and the status of every domain,
+ * domains that are not sudplan systems are {@link DomainStatus#SKIPPED}. A failing step is logged and does not stop
+ * the warm-up. The search is meant to be run once by the deployment after the server started, running it again is
+ * harmless.<br/>
+ * <br/>
+ * The cached <code>MetaClass</code>es are kept per user and group, so the warm-up only resolves them for its own user
+ * and group. The deployment should run it as a user of the group the regular searches run as, the other groups pay for
+ * the resolution with their first search. The probes are shared by all users.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class WarmupSearch extends AbstractCidsServerSearch {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(WarmupSearch.class);
+
+    /** the prefix of the names of the metrics of this search. */
+    private static final String METRICS_PREFIX = "warmup."; // NOI18N
+
+    private static final String RUN_CLASS = "run"; // NOI18N
+
+    /** a name no time series has, the time series search shall only warm up the queries. */
+    private static final String UNKNOWN_TIMESERIES = "__sudplan_warmup__"; // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private boolean runSearches;
+    private int webDavConnections;
+    private long domainTimeout;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new WarmupSearch object that runs every search once and opens 4 WebDAV connections.
+     */
+    public WarmupSearch() {
+        this.runSearches = true;
+        this.webDavConnections = 4;
+        this.domainTimeout = TimeUnit.MINUTES.toMillis(2);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Whether every server search is run once.
+     *
+     * @return  <code>true</code> if the searches are run
+     */
+    public boolean isRunSearches() {
+        return runSearches;
+    }
+
+    /**
+     * Setter for whether every server search is run once. The searches initialise the remaining caches and pools but
+     * put some load on the domains.
+     *
+     * @param  runSearches  <code>true</code> if the searches shall be run
+     */
+    public void setRunSearches(final boolean runSearches) {
+        this.runSearches = runSearches;
+    }
+
+    /**
+     * Getter for the amount of WebDAV connections to open.
+     *
+     * @return  the amount of connections, <code>0</code> if none are opened
+     */
+    public int getWebDavConnections() {
+        return webDavConnections;
+    }
+
+    /**
+     * Setter for the amount of WebDAV connections to open. The connections are closed again by the WebDAV client once
+     * they were idle for its <code>idleTimeout</code>, so the warm-up should happen shortly before the load starts. The
+     * amount is capped at the connections the WebDAV client holds per host and at the threads of the
+     * {@link SearchExecutor}, which opens them.
+     *
+     * @param   webDavConnections  the amount of connections, <code>0</code> to open none
+     *
+     * @throws  IllegalArgumentException  if the amount is negative
+     */
+    public void setWebDavConnections(final int webDavConnections) {
+        if (webDavConnections < 0) {
+            throw new IllegalArgumentException(
+                "webDavConnections must not be negative: " // NOI18N
+                        + webDavConnections);
+        }
+
+        this.webDavConnections = webDavConnections;
+    }
+
+    /**
+     * Getter for the time in milliseconds every domain has to finish its warm-up.
+     *
+     * @return  the timeout per domain in milliseconds
+     */
+    public long getDomainTimeout() {
+        return domainTimeout;
+    }
+
+    /**
+     * Setter for the time in milliseconds every domain has to finish its warm-up.
+     *
+     * @param   domainTimeout  the timeout per domain in milliseconds
+     *
+     * @throws  IllegalArgumentException  if the timeout is not positive
+     */
+    public void setDomainTimeout(final long domainTimeout) {
+        if (domainTimeout < 1) {
+            throw new IllegalArgumentException("domainTimeout must be positive: " + domainTimeout); // NOI18N
+        }
+
+        this.domainTimeout = domainTimeout;
+    }
+
+    @Override
+    public Collection performServerSearch() {
+        final long start = System.currentTimeMillis();
+        final Map<String, MetaService> mss = getActiveLocalServers();
+        final WarmupReport report = new WarmupReport();
+        final FederatedSearchResult<WarmupReport> result = new FederatedSearchResult<WarmupReport>();
+
+        long stepStart = System.currentTimeMillis();
+        // creates the metrics registry and the executor with their gauges and threads
+        Metrics.getInstance();
+        SearchExecutor.getInstance();
+        report.record("executor", System.currentTimeMillis() - stepStart); // NOI18N
+
+        try {
+            warmUpDomains(mss, report, result);
+        } catch (final InterruptedException ex) {
+            LOG.warn("warm-up was interrupted"); // NOI18N
+            Thread.currentThread().interrupt();
+            report.setDuration(System.currentTimeMillis() - start);
+            result.add(report);
+
+            return result;
+        }
+
+        if (webDavConnections > 0) {
+            stepStart = System.currentTimeMillis();
+            try {
+                final int opened = TimeSeriesFiles.getInstance().warmUp(webDavConnections);
+                if (opened < webDavConnections) {
+                    LOG.warn("opened only " + opened + " of " + webDavConnections + " WebDAV connections"); // NOI18N
+                }
+            } catch (final InterruptedException ex) {
+                LOG.warn("WebDAV warm-up was interrupted"); // NOI18N
+                Thread.currentThread().interrupt();
+            }
+            report.record("webdav", System.currentTimeMillis() - stepStart); // NOI18N
+        }
+
+        if (runSearches && !Thread.currentThread().isInterrupted()) {
+            // a page of a single run only reaches the first domain with runs, so every sudplan domain gets its own
+            // page. The page starts at the domain by a cursor instead of hiding the other domains from the search.
+            for (final Map.Entry<String, DomainStatus> entry : result.getDomainStatus().entrySet()) {
+                final String domain = entry.getKey();
+                if ((DomainStatus.OK == entry.getValue()) && !Thread.currentThread().isInterrupted()) {
+                    final UnfinishedRunSearchStatement runs = new UnfinishedRunSearchStatement();
+                    runs.setPageSize(1);
+                    runs.setCursor(SearchCursor.startOf(domain));
+                    runs.setUseCache(false);
+                    runSearch("search.runs." + domain, runs, mss, report); // NOI18N
+                }
+            }
+
+            final EmissionDatabaseSearch emissionDatabases = new EmissionDatabaseSearch();
+            emissionDatabases.setPageSize(1);
+            runSearch("search.emissiondb", emissionDatabases, mss, report);                        // NOI18N
+
+            runSearch("search.timeseries", new TimeSeriesSearch(UNKNOWN_TIMESERIES), mss, report); // NOI18N
+        }
+
+        report.setDuration(System.currentTimeMillis() - start);
+        Metrics.getInstance().histogram(METRICS_PREFIX + "duration") // NOI18N
+                .record(TimeUnit.MILLISECONDS.toNanos(report.getDuration()));
+        result.add(report);
+        if (LOG.isInfoEnabled()) {
+            LOG.info(report + ", domains: " + result.getDomainStatus()); // NOI18N
+        }
+
+        return result;
+    }
+
+    /**
+     * Probes every domain and resolves the classes the searches need, all domains concurrently.
+     *
+     * @param   mss     the <code>MetaService</code> per domain
+     * @param   report  receives the timings
+     * @param   result  receives the status of every domain
+     *
+     * @throws  InterruptedException  if the current thread is interrupted while waiting for the domains
+     */
+    private void warmUpDomains(final Map<String, MetaService> mss,
+            final WarmupReport report,
+            final FederatedSearchResult<WarmupReport> result) throws InterruptedException {
+        final User user = getUser();
+        final DomainFanOut<Boolean> fanOut = new DomainFanOut<Boolean>(
+                SearchExecutor.getInstance(),
+                domainTimeout,
+                TimeUnit.MILLISECONDS);
+        for (final String domain : mss.keySet()) {
+            final MetaService ms = mss.get(domain);
+
+            if (ms != null) {
+                fanOut.submit(domain, new Callable<Boolean>() {
+
+                        @Override
+                        public Boolean call() throws Exception {
+                            return warmUpDomain(domain, ms, user, report);
+                        }
+                    });
+            } else {
+                result.setDomainStatus(domain, DomainStatus.SKIPPED);
+            }
+        }
+
+        final Map<String, Boolean> capable = fanOut.await();
+        for (final Map.Entry<String, DomainStatus> entry : fanOut.getStatus().entrySet()) {
+            final String domain = entry.getKey();
+            if ((DomainStatus.OK == entry.getValue()) && !Boolean.TRUE.equals(capable.get(domain))) {
+                result.setDomainStatus(domain, DomainStatus.SKIPPED);
+            } else {
+                result.setDomainStatus(domain, entry.getValue());
+                if (DomainStatus.FAILED == entry.getValue()) {
+                    LOG.error("warm-up failed in domain " + domain, fanOut.getError(domain)); // NOI18N
+                }
+            }
+        }
+    }
+
+    /**
+     * Probes a single domain and resolves the classes the searches need in it.
+     *
+     * @param   domain  the domain
+     * @param   ms      the <code>MetaService</code> of the domain
+     * @param   user    the user to resolve the classes for
+     * @param   report  receives the timings
+     *
+     * @return  whether the domain is a sudplan system
+     *
+     * @throws  Exception  if a class cannot be resolved
+     */
+    private static boolean warmUpDomain(final String domain,
+            final MetaService ms,
+            final User user,
+            final WarmupReport report) throws Exception {
+        long stepStart = System.currentTimeMillis();
+        final boolean capable = DomainCapabilityCache.getInstance()
+                    .isCapable(domain, ms, UnfinishedRunSearchStatement.STMT_TEST_SUDPLAN_SYSTEM);
+        report.record("probe." + domain, System.currentTimeMillis() - stepStart); // NOI18N
+
+        if (capable) {
+            stepStart = System.currentTimeMillis();
+            MetaClassCache.getInstance().getClassByTableName(domain, ms, user, RUN_CLASS);
+            report.record("metaclass." + RUN_CLASS + "." + domain, System.currentTimeMillis() - stepStart); // NOI18N
+        }
+
+        if (EmissionDatabaseSearch.DOMAIN.equals(domain)) {
+            stepStart = System.currentTimeMillis();
+            MetaClassCache.getInstance().getClassByTableName(domain, ms, user, EmissionDatabaseSearch.CIDSCLASS);
+            report.record("metaclass." + EmissionDatabaseSearch.CIDSCLASS + "." + domain, // NOI18N
+                System.currentTimeMillis() - stepStart);
+        }
+
+        return capable;
+    }
+
+    /**
+     * Runs a server search once with the given domains and the user of this search.
+     *
+     * @param  step     the name of the step
+     * @param  search   the search
+     * @param  domains  the <code>MetaService</code> per domain to run the search in
+     * @param  report   receives the timing
+     */
+    private void runSearch(final String step,
+            final AbstractCidsServerSearch search,
+            final Map<String, MetaService> domains,
+            final WarmupReport report) {
+        final long stepStart = System.currentTimeMillis();
+        search.setActiveLocalServers(domains);
+        search.setUser(getUser());
+        try {
+            search.performServerSearch();
+        } catch (final RuntimeException ex) {
+            LOG.warn("warm-up search " + step + " failed", ex); // NOI18N
+        }
+        report.record(step, System.currentTimeMillis() - stepStart);
+    }
+}
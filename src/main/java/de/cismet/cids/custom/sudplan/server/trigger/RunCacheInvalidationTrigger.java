@@ -0,0 +1,112 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.trigger;
+
+import Sirius.server.newuser.User;
+
+import org.openide.util.lookup.ServiceProvider;
+
+import de.cismet.cids.custom.sudplan.server.search.UnfinishedRunCache;
+
+import de.cismet.cids.dynamics.CidsBean;
+
+import de.cismet.cids.trigger.AbstractCidsTrigger;
+import de.cismet.cids.trigger.CidsTrigger;
+import de.cismet.cids.trigger.CidsTriggerKey;
+
+/**
+ * Invalidates the {@link UnfinishedRunCache} as soon as a run is inserted, changed (e.g. finished) or deleted, so that
+ * the cache only bridges the time between two changes of the runs.
+ *
+ * @version  $Revision$, $Date$
+ */
+@ServiceProvider(service = CidsTrigger.class)
+public class RunCacheInvalidationTrigger extends AbstractCidsTrigger {
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final TableNameFilter runFilter;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new RunCacheInvalidationTrigger object.
+     */
+    public RunCacheInvalidationTrigger() {
+        this.runFilter = new TableNameFilter("RUN"); // NOI18N
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    @Override
+    public void beforeInsert(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void afterInsert(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void beforeUpdate(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void afterUpdate(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void beforeDelete(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void afterDelete(final CidsBean cidsBean, final User user) {
+        // do nothing
+    }
+
+    @Override
+    public void afterCommittedInsert(final CidsBean cidsBean, final User user) {
+        invalidate(cidsBean);
+    }
+
+    @Override
+    public void afterCommittedUpdate(final CidsBean cidsBean, final User user) {
+        invalidate(cidsBean);
+    }
+
+    @Override
+    public void afterCommittedDelete(final CidsBean cidsBean, final User user) {
+        invalidate(cidsBean);
+    }
+
+    /**
+     * Invalidates the cache if the given bean is a run.
+     *
+     * @param  cidsBean  the changed bean
+     */
+    private void invalidate(final CidsBean cidsBean) {
+        if (runFilter.accepts(cidsBean)) {
+            UnfinishedRunCache.getInstance().invalidateAll();
+        }
+    }
+
+    @Override
+    public CidsTriggerKey getTriggerKey() {
+        // registered for all classes like the TimeSeriesDeletionTrigger, the TableNameFilter sorts out unrelated beans
+        return CidsTriggerKey.FORALL;
+    }
+
+    @Override
+    public int compareTo(final CidsTrigger t) {
+        return -1;
+    }
+}
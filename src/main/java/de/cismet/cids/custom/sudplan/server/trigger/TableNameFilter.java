@@ -0,0 +1,75 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.trigger;
+
+import Sirius.server.middleware.types.MetaObject;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.cismet.cids.dynamics.CidsBean;
+
+/**
+ * Fast check whether a bean belongs to a certain table for triggers that are registered for all classes. The table
+ * name of a class is compared only once, afterwards the outcome is looked up by the domain and class id of the bean.
+ * Beans of unrelated classes thus neither resolve their <code>MetaClass</code> nor compare strings.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class TableNameFilter {
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String tableName;
+
+    /** domain &rarr; (class id &rarr; whether the class is the table). */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Boolean>> classes;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TableNameFilter object.
+     *
+     * @param  tableName  the table name to accept, compared case insensitively
+     */
+    TableNameFilter(final String tableName) {
+        this.tableName = tableName;
+        this.classes = new ConcurrentHashMap<String, ConcurrentHashMap<Integer, Boolean>>();
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Checks whether the given bean belongs to the table of this filter.
+     *
+     * @param   cidsBean  the bean to check
+     *
+     * @return  <code>true</code> if the bean belongs to the table
+     */
+    boolean accepts(final CidsBean cidsBean) {
+        final MetaObject metaObject = cidsBean.getMetaObject();
+        final String domain = metaObject.getDomain();
+
+        ConcurrentHashMap<Integer, Boolean> domainClasses = classes.get(domain);
+        if (domainClasses == null) {
+            final ConcurrentHashMap<Integer, Boolean> created = new ConcurrentHashMap<Integer, Boolean>();
+            domainClasses = classes.putIfAbsent(domain, created);
+            if (domainClasses == null) {
+                domainClasses = created;
+            }
+        }
+
+        final Integer classId = metaObject.getClassID();
+        Boolean accepted = domainClasses.get(classId);
+        if (accepted == null) {
+            accepted = tableName.equalsIgnoreCase(metaObject.getMetaClass().getTableName());
+            domainClasses.put(classId, accepted);
+        }
+
+        return accepted;
+    }
+}
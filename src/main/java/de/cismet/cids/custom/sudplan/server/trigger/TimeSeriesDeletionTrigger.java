@@ -10,20 +10,25 @@ package de.cismet.cids.custom.sudplan.server.trigger;
 import Sirius.server.newuser.User;
 
 import org.apache.commons.httpclient.Credentials;
-import org.apache.commons.httpclient.HostConfiguration;
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpConnectionManager;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
-import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
-import org.apache.commons.httpclient.methods.DeleteMethod;
-import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
 import org.apache.log4j.Logger;
 
 import org.openide.util.lookup.ServiceProvider;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.io.File;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+import de.cismet.cids.custom.sudplan.server.metrics.Gauge;
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+import de.cismet.cids.custom.sudplan.server.search.TimeSeriesNameCache;
 
 import de.cismet.cids.dynamics.CidsBean;
 
@@ -32,8 +37,12 @@ import de.cismet.cids.trigger.CidsTrigger;
 import de.cismet.cids.trigger.CidsTriggerKey;
 
 /**
- * TimeSeriesDeletionTrigger deletes TimeSeries files (aggregated and "original") located on the WebDAV. If the deletion
- * of the remote files fails, the deletion of this TimeSeries object is aborted.
+ * TimeSeriesDeletionTrigger deletes TimeSeries files (aggregated and "original") located on the WebDAV concurrently,
+ * the aggregation levels are configurable (see {@link #PROP_AGGREGATION_SUFFIXES}). If the deletion of any of the
+ * remote files fails, the deletion of this TimeSeries object is aborted. Alternatively the deletion can be
+ * deferred until the delete was committed (see {@link #PROP_ASYNC_DELETION}), the remote files are then removed by a
+ * durable, retrying background queue and a failure does not abort the deletion anymore. Additionally it keeps the
+ * {@link TimeSeriesNameCache} up to date when TimeSeries are created, changed or deleted.
  *
  * @author   Benjamin Friedrich (benjamin.friedrich@cismet.de)
  * @version  1.0, 04.01.2012
@@ -43,18 +52,51 @@ public class TimeSeriesDeletionTrigger extends AbstractCidsTrigger {
 
     //~ Static fields/initializers ---------------------------------------------
 
-    public static final String DAV_HOST = "http://sudplan.cismet.de/tsDav/";
-    public static final Credentials CREDS = new UsernamePasswordCredentials("tsDav", "RHfio2l4wrsklfghj");
+    /**
+     * The base url of the WebDAV, configured in <code>webdav.properties</code>.
+     *
+     * @deprecated  the WebDAV is configured through {@link WebDavClient} now
+     */
+    @Deprecated
+    public static final String DAV_HOST = WebDavClient.getInstance().getHost();
+
+    /**
+     * The credentials of the WebDAV, configured in <code>webdav.properties</code>.
+     *
+     * @deprecated  the WebDAV is configured through {@link WebDavClient} now
+     */
+    @Deprecated
+    public static final Credentials CREDS = WebDavClient.getInstance().getCredentials();
 
-    private static final String REGEX = "^dav:.+\\?.*ts:offering=(.+_unknown).*$";
+    public static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.trigger.timeseries."; // NOI18N
+
+    /**
+     * If set to <code>true</code> the remote files are not deleted within the database transaction but enqueued for an
+     * asynchronous deletion after the delete was committed.
+     */
+    public static final String PROP_ASYNC_DELETION = PROP_PREFIX + "asyncDeletion"; // NOI18N
 
     private static final Logger LOG = Logger.getLogger(TimeSeriesDeletionTrigger.class);
 
+    /**
+     * Comma separated list of the suffixes that replace "_unknown" in the name of the original file to form the names
+     * of its aggregated versions. Defaults to "_86400s".
+     */
+    public static final String PROP_AGGREGATION_SUFFIXES = PROP_PREFIX + "aggregationSuffixes"; // NOI18N
+
+    private static final ExecutorService DELETION_EXECUTOR = Executors.newFixedThreadPool(
+            Integer.getInteger(PROP_PREFIX + "deletionThreads", 8), // NOI18N
+            SudplanConcurrency.createThreadFactory("ts-dav-delete")); // NOI18N
+
+    private static final String JOURNAL_NAME = "ts-dav-deletion.journal"; // NOI18N
+
+    private static WebDavDeletionQueue deletionQueue;
+    private static boolean warmUpStarted;
+
     //~ Instance fields --------------------------------------------------------
 
-    private final HostConfiguration hostConfig;
-    private HttpConnectionManager connectionManager;
-    private final Pattern pattern;
+    private final boolean asyncDeletion;
+    private final TableNameFilter timeSeriesFilter;
 
     //~ Constructors -----------------------------------------------------------
 
@@ -62,68 +104,226 @@ public class TimeSeriesDeletionTrigger extends AbstractCidsTrigger {
      * Creates a new TimeSeriesDeletionTrigger object.
      */
     public TimeSeriesDeletionTrigger() {
-        this.hostConfig = new HostConfiguration();
-        this.hostConfig.setHost(DAV_HOST);
-        this.connectionManager = new MultiThreadedHttpConnectionManager();
-        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
-        params.setMaxConnectionsPerHost(hostConfig, 20);
-        this.connectionManager.setParams(params);
+        this.timeSeriesFilter = new TableNameFilter("TIMESERIES"); // NOI18N
+        this.asyncDeletion = Boolean.getBoolean(PROP_ASYNC_DELETION);
+
+        if (asyncDeletion) {
+            try {
+                getDeletionQueue();
+            } catch (final IOException ex) {
+                // the creation is retried with the first deletion
+                LOG.error("cannot start the WebDAV deletion queue", ex); // NOI18N
+            }
+        }
 
-        this.pattern = Pattern.compile(REGEX);
+        warmUp();
     }
 
     //~ Methods ----------------------------------------------------------------
 
     /**
-     * DOCUMENT ME!
+     * Opens the configured amount of WebDAV connections in the background once per server, see
+     * {@link WebDavClient#getWarmupConnections()}. The first deletions after a restart then find open connections.
+     */
+    private static synchronized void warmUp() {
+        final int connections = WebDavClient.getInstance().getWarmupConnections();
+        if (warmUpStarted || (connections < 1)) {
+            return;
+        }
+
+        warmUpStarted = true;
+        DELETION_EXECUTOR.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    final long start = System.currentTimeMillis();
+                    try {
+                        final int opened = TimeSeriesFiles.getInstance().warmUp(connections);
+                        if (LOG.isInfoEnabled()) {
+                            LOG.info("opened " + opened + " of " + connections + " WebDAV connections in " // NOI18N
+                                        + (System.currentTimeMillis() - start) + " ms");                   // NOI18N
+                        }
+                    } catch (final InterruptedException ex) {
+                        LOG.warn("WebDAV warm-up was interrupted");                                     // NOI18N
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+    }
+
+    /**
+     * Determines the location of the deletion journal. It is configured by the system property <code>journal</code>
+     * with the prefix {@link #PROP_PREFIX} and should be set for every server. Otherwise the journal is kept in
+     * <code>.sudplan</code> in the home directory of the server user, as the working directory depends on how the
+     * server is started.
      *
-     * @return  DOCUMENT ME!
+     * @return  the journal file
+     */
+    private static File getJournal() {
+        final String configured = System.getProperty(PROP_PREFIX + "journal"); // NOI18N
+        if (configured != null) {
+            return new File(configured);
+        }
+
+        final File journal = new File(new File(System.getProperty("user.home"), ".sudplan"), JOURNAL_NAME); // NOI18N
+        LOG.warn("no location configured for the WebDAV deletion journal (" + PROP_PREFIX                     // NOI18N
+                    + "journal), using " + journal.getAbsolutePath());                                       // NOI18N
+
+        return journal;
+    }
+
+    /**
+     * Provides the server wide deletion queue, creating it if necessary. The journal location, the amount of workers,
+     * attempts and the batch size are read from system properties with the prefix {@link #PROP_PREFIX}.
+     *
+     * @return  the deletion queue
+     *
+     * @throws  IOException  if the journal of the queue cannot be read or written
      */
-    private HttpClient createHttpClient() {
-        final HttpClient client = new HttpClient(this.connectionManager);
-        client.setHostConfiguration(this.hostConfig);
-        client.getState().setCredentials(AuthScope.ANY, CREDS);
-        return client;
+    static synchronized WebDavDeletionQueue getDeletionQueue() throws IOException {
+        if (deletionQueue == null) {
+            deletionQueue = new WebDavDeletionQueue(
+                    getJournal(),
+                    new WebDavDeletionQueue.Deleter() {
+
+                        @Override
+                        public void delete(final String uri) throws Exception {
+                            final int status = TimeSeriesFiles.getInstance().delete(uri);
+                            // a missing file is gone already, everything else but a success is retried
+                            if (!TimeSeriesFiles.isGone(status)) {
+                                throw new IOException("unexpected status " + status + " deleting " + uri); // NOI18N
+                            }
+                        }
+                    },
+                    Integer.getInteger(PROP_PREFIX + "deletionWorkers", 2),     // NOI18N
+                    Integer.getInteger(PROP_PREFIX + "deletionAttempts", 10),   // NOI18N
+                    Long.getLong(PROP_PREFIX + "deletionBackoff", 1000),        // NOI18N
+                    Integer.getInteger(PROP_PREFIX + "deletionBatchSize", 20)); // NOI18N
+
+            final WebDavDeletionQueue queue = deletionQueue;
+            // the trigger has no lifecycle of its own, so the journal is closed when the server stops
+            Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+
+                        @Override
+                        public void run() {
+                            queue.shutdown();
+                        }
+                    }, "ts-dav-deletion-shutdown")); // NOI18N
+            Metrics.getInstance().gauge("webdav.queue.pending", new Gauge() { // NOI18N
+
+                    @Override
+                    public long getValue() {
+                        return queue.getPendingCount();
+                    }
+                });
+        }
+
+        return deletionQueue;
     }
 
     /**
      * DOCUMENT ME!
      *
-     * @param   uri     DOCUMENT ME!
-     * @param   client  DOCUMENT ME!
+     * @param   uri  DOCUMENT ME!
+     *
+     * @return  the HTTP status of the response
      *
      * @throws  RuntimeException  DOCUMENT ME!
      */
-    private void delete(final String uri, final HttpClient client) {
+    private int delete(final String uri) {
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Entering delete(String, User) with uri=" + uri + " client=" + client);
+            LOG.debug("Entering delete(String) with uri=" + uri);
         }
 
-        DeleteMethod del = null;
+        final int status;
 
         try {
-            del = new DeleteMethod(uri);
-            client.executeMethod(del);
+            status = TimeSeriesFiles.getInstance().delete(uri);
         } catch (final Exception ex) {
             LOG.error("An error occured while deleting remote file " + uri, ex);
 
-            if (del != null) {
-                del.abort();
-            }
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Leaving delete(String, HttpClient) with error", ex);
+                LOG.debug("Leaving delete(String) with error", ex);
             }
             throw new RuntimeException(ex);
-        } finally {
-            if (del != null) {
-                del.releaseConnection();
-            }
         }
         if (LOG.isDebugEnabled()) {
-            LOG.debug("Leaving delete(String, HttpClient)");
+            LOG.debug("Leaving delete(String)");
+        }
+
+        return status;
+    }
+
+    /**
+     * Deletes all given remote files concurrently. Every file is attempted, if at least one deletion fails a single
+     * exception is thrown afterwards so that the deletion of the TimeSeries is aborted as before.
+     *
+     * @param   uris  the uris of the remote files
+     *
+     * @throws  RuntimeException  if at least one file could not be deleted
+     */
+    private void deleteAll(final List<String> uris) {
+        final List<Future<Integer>> futures = new ArrayList<Future<Integer>>(uris.size());
+        // the first file is deleted by the current thread, the others by the pool
+        for (final String uri : uris.subList(1, uris.size())) {
+            futures.add(DELETION_EXECUTOR.submit(new Callable<Integer>() {
+
+                        @Override
+                        public Integer call() throws Exception {
+                            return delete(uri);
+                        }
+                    }));
+        }
+
+        Throwable firstError = null;
+        int failures = 0;
+        try {
+            delete(uris.get(0));
+        } catch (final RuntimeException ex) {
+            firstError = ex;
+            ++failures;
+        }
+
+        for (final Future<Integer> future : futures) {
+            try {
+                future.get();
+            } catch (final ExecutionException ex) {
+                if (firstError == null) {
+                    firstError = ex.getCause();
+                }
+                ++failures;
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+
+                throw new RuntimeException("interrupted while deleting remote files " + uris, ex); // NOI18N
+            }
+        }
+
+        if (firstError != null) {
+            throw new RuntimeException(failures + " of " + uris.size() // NOI18N
+                        + " remote files could not be deleted: " + uris, // NOI18N
+                firstError);
         }
     }
 
+    /**
+     * Determines the remote files of the given TimeSeries: the "original" file and its aggregated versions, one per
+     * configured aggregation suffix.
+     *
+     * @param   cidsBean  the TimeSeries bean
+     *
+     * @return  the uris of the remote files or an empty list if the TimeSeries is not stored on the WebDAV
+     */
+    private List<String> resolveRemoteFiles(final CidsBean cidsBean) {
+        final String uri = (String)cidsBean.getProperty("uri"); // NOI18N
+        final List<String> uris = TimeSeriesFiles.getInstance().resolve(uri);
+        if (uris.isEmpty() && LOG.isDebugEnabled()) {
+            LOG.debug("TimeSeries uri " + uri + " does not represent a remote file"); // NOI18N
+        }
+
+        return uris;
+    }
+
     @Override
     public void beforeInsert(final CidsBean cidsBean, final User user) {
         // do nothing
@@ -146,35 +346,55 @@ public class TimeSeriesDeletionTrigger extends AbstractCidsTrigger {
 
     @Override
     public void beforeDelete(final CidsBean cidsBean, final User user) {
+        // this trigger is called for every deletion, so unrelated beans are sorted out before anything else is done
+        if (!isTimeSeries(cidsBean)) {
+            return;
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug("Entering beforeDelete(CidsBean, User) with cidsBean=" + cidsBean + " user=" + user);
         }
 
-        if (!"TIMESERIES".equalsIgnoreCase(cidsBean.getMetaObject().getMetaClass().getTableName())) {
+        if (asyncDeletion) {
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Leaving beforeDelete(CidsBean, User) as cidsBean " + cidsBean
-                            + " does not represent a TimeSeries");
+                LOG.debug("Leaving beforeDelete(CidsBean, User) as the remote files are deleted after commit");
             }
             return;
         }
 
-        String uri = (String)cidsBean.getProperty("uri");
+        final List<String> uris = resolveRemoteFiles(cidsBean);
+        if (!uris.isEmpty()) {
+            // delete TimeSeries file and aggregated versions of TimeSeries file
+            this.deleteAll(uris);
+        }
 
-        final Matcher m = this.pattern.matcher(uri);
-        if (m.matches()) {
-            // group(1) = file name
-            uri = DAV_HOST + m.group(1);
-            final HttpClient client = this.createHttpClient();
-            this.delete(uri, client);                                // delete TimeSeries file
-            this.delete(uri.replace("_unknown", "_86400s"), client); // delete aggregated version of TimeSeries file
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Leaving beforeDelete(CidsBean, User)");
-            }
-        } else {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Leaving beforeDelete(CidsBean, User) because TimeSeries uri " + uri
-                            + " does not represent a remote file");
-            }
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Leaving beforeDelete(CidsBean, User)");
+        }
+    }
+
+    /**
+     * Checks whether the given bean represents a TimeSeries.
+     *
+     * @param   cidsBean  the bean to check
+     *
+     * @return  <code>true</code> if the bean is a TIMESERIES bean
+     */
+    private boolean isTimeSeries(final CidsBean cidsBean) {
+        return timeSeriesFilter.accepts(cidsBean);
+    }
+
+    /**
+     * Evicts the given TimeSeries from the {@link TimeSeriesNameCache}, both by its current name and by its id as the
+     * previous name of a renamed TimeSeries is unknown.
+     *
+     * @param  cidsBean  the changed bean
+     */
+    private void evictFromNameCache(final CidsBean cidsBean) {
+        if (isTimeSeries(cidsBean)) {
+            final TimeSeriesNameCache cache = TimeSeriesNameCache.getInstance();
+            cache.evict((String)cidsBean.getProperty("name")); // NOI18N
+            cache.evict(cidsBean.getMetaObject().getDomain(), cidsBean.getMetaObject().getID());
         }
     }
 
@@ -185,6 +405,7 @@ public class TimeSeriesDeletionTrigger extends AbstractCidsTrigger {
 
     @Override
     public CidsTriggerKey getTriggerKey() {
+        // registered for all classes, the TableNameFilter sorts out unrelated beans by their class id
         return CidsTriggerKey.FORALL; // new CidsTriggerKey(CidsTriggerKey.ALL, "TIMESERIES"); // NOI18N
     }
 
@@ -202,13 +423,28 @@ public class TimeSeriesDeletionTrigger extends AbstractCidsTrigger {
 
     @Override
     public void afterCommittedInsert(final CidsBean cidsBean, final User user) {
+        evictFromNameCache(cidsBean);
     }
 
     @Override
     public void afterCommittedUpdate(final CidsBean cidsBean, final User user) {
+        evictFromNameCache(cidsBean);
     }
 
     @Override
     public void afterCommittedDelete(final CidsBean cidsBean, final User user) {
+        evictFromNameCache(cidsBean);
+
+        if (asyncDeletion && isTimeSeries(cidsBean)) {
+            final List<String> uris = resolveRemoteFiles(cidsBean);
+            if (!uris.isEmpty()) {
+                try {
+                    getDeletionQueue().enqueue(uris);
+                } catch (final IOException ex) {
+                    // the database row is gone already, so there is nothing left but to report the orphaned files
+                    LOG.error("cannot enqueue deletion of remote files, files are orphaned: " + uris, ex); // NOI18N
+                }
+            }
+        }
     }
 }
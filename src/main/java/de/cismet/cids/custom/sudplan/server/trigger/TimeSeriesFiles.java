@@ -0,0 +1,259 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.trigger;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.DeleteMethod;
+import org.apache.commons.httpclient.methods.OptionsMethod;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.cismet.cids.custom.sudplan.server.metrics.Metrics;
+import de.cismet.cids.custom.sudplan.server.search.SearchExecutor;
+
+/**
+ * Knows where the files of a TimeSeries are located on the WebDAV and deletes them using the shared
+ * {@link WebDavClient}. A TimeSeries stored on the WebDAV consists of its "original" file and one aggregated version
+ * per aggregation suffix (see {@link TimeSeriesDeletionTrigger#PROP_AGGREGATION_SUFFIXES}). This is used by the
+ * {@link TimeSeriesDeletionTrigger} as well as by searches that delete TimeSeries in bulk.
+ *
+ * @version  $Revision$, $Date$
+ */
+public final class TimeSeriesFiles {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final String REGEX = "^dav:.+\\?.*ts:offering=(.+_unknown).*$"; // NOI18N
+
+    /** the prefix of the names of the metrics of the WebDAV requests. */
+    private static final String METRICS_PREFIX = "webdav."; // NOI18N
+
+    /** the maximum time in milliseconds a warm-up connection waits for the others to open. */
+    private static final long WARMUP_TIMEOUT = 10000;
+
+    private static final transient Logger LOG = Logger.getLogger(TimeSeriesFiles.class);
+
+    private static final TimeSeriesFiles INSTANCE = new TimeSeriesFiles();
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final Pattern pattern;
+    private final List<String> aggregationSuffixes;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new TimeSeriesFiles object.
+     */
+    private TimeSeriesFiles() {
+        this.pattern = Pattern.compile(REGEX);
+        final String configured = System.getProperty(
+                TimeSeriesDeletionTrigger.PROP_AGGREGATION_SUFFIXES,
+                "_86400s"); // NOI18N
+        final List<String> suffixes = new ArrayList<String>();
+        for (final String suffix : configured.split(",")) {           // NOI18N
+            if (!suffix.trim().isEmpty()) {
+                suffixes.add(suffix.trim());
+            }
+        }
+        this.aggregationSuffixes = Collections.unmodifiableList(suffixes);
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide instance.
+     *
+     * @return  the instance
+     */
+    public static TimeSeriesFiles getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Determines the remote files of the TimeSeries with the given uri: the "original" file and its aggregated
+     * versions.
+     *
+     * @param   uri  the uri property of the TimeSeries, may be <code>null</code>
+     *
+     * @return  the uris of the remote files or an empty list if the TimeSeries is not stored on the WebDAV
+     */
+    public List<String> resolve(final String uri) {
+        final Matcher m = (uri == null) ? null : pattern.matcher(uri);
+        if ((m == null) || !m.matches()) {
+            return Collections.emptyList();
+        }
+
+        // group(1) = file name
+        final String fileUri = WebDavClient.getInstance().getHost() + m.group(1);
+        final List<String> uris = new ArrayList<String>(aggregationSuffixes.size() + 1);
+        uris.add(fileUri);
+        for (final String suffix : aggregationSuffixes) {
+            uris.add(fileUri.replace("_unknown", suffix)); // NOI18N
+        }
+
+        return uris;
+    }
+
+    /**
+     * Deletes the given remote file.
+     *
+     * @param   fileUri  the uri of the remote file
+     *
+     * @return  the HTTP status of the response
+     *
+     * @throws  IOException  if the request fails
+     */
+    public int delete(final String fileUri) throws IOException {
+        final Metrics metrics = Metrics.getInstance();
+        final long start = System.nanoTime();
+        final DeleteMethod del = new DeleteMethod(fileUri);
+        try {
+            final int status = WebDavClient.getInstance().getHttpClient().executeMethod(del);
+            metrics.increment(METRICS_PREFIX + "status." + status); // NOI18N
+            if (!isGone(status)) {
+                metrics.increment(METRICS_PREFIX + "errors");       // NOI18N
+            }
+
+            return status;
+        } catch (final IOException ex) {
+            del.abort();
+            metrics.increment(METRICS_PREFIX + "errors");           // NOI18N
+
+            throw ex;
+        } catch (final RuntimeException ex) {
+            del.abort();
+            metrics.increment(METRICS_PREFIX + "errors");           // NOI18N
+
+            throw ex;
+        } finally {
+            del.releaseConnection();
+            metrics.stop(METRICS_PREFIX + "delete", start);         // NOI18N
+        }
+    }
+
+    /**
+     * Durably enqueues the given files for an asynchronous deletion by the deletion queue of the
+     * {@link TimeSeriesDeletionTrigger}. The files are deleted with retries, even after a restart of the server. This
+     * is meant for files whose time series row is deleted already.
+     *
+     * @param   uris  the uris of the files
+     *
+     * @throws  IOException  if the uris cannot be written to the journal of the queue, nothing is enqueued then
+     */
+    public void deleteLater(final Collection<String> uris) throws IOException {
+        if (!uris.isEmpty()) {
+            TimeSeriesDeletionTrigger.getDeletionQueue().enqueue(uris);
+        }
+    }
+
+    /**
+     * Opens the given amount of connections to the WebDAV and returns them to the pool of the shared client, so that
+     * the first deletions do not pay for the connection setup. Every connection sends an <code>OPTIONS</code> request
+     * to the base url and is held until all connections are open, otherwise a fast request would hand its connection
+     * to the next one. The opened connections are subject to the idle timeout of the client like any other connection.
+     * <br/>
+     * <br/>
+     * The requests run on the {@link SearchExecutor}, so the amount is capped at the connections the client holds per
+     * host and at the threads of the executor. The connections are held and awaited for at most
+     * {@link #WARMUP_TIMEOUT} milliseconds, connections that are not open by then are not counted.
+     *
+     * @param   connections  the amount of connections to open
+     *
+     * @return  the amount of connections that were opened
+     *
+     * @throws  InterruptedException  if the current thread is interrupted while waiting for the connections
+     */
+    public int warmUp(final int connections) throws InterruptedException {
+        final WebDavClient webDav = WebDavClient.getInstance();
+        final SearchExecutor executor = SearchExecutor.getInstance();
+        final int count = Math.min(connections, Math.min(webDav.getMaxConnectionsPerHost(), executor.getThreads()));
+        if (count < 1) {
+            return 0;
+        }
+        if (count < connections) {
+            LOG.warn("opening " + count + " instead of " + connections + " WebDAV connections, the client " // NOI18N
+                        + "or the search executor does not allow more");                                    // NOI18N
+        }
+
+        final long start = System.nanoTime();
+        final CountDownLatch opened = new CountDownLatch(count);
+        final AtomicInteger successes = new AtomicInteger(0);
+        try {
+            for (int i = 0; i < count; ++i) {
+                final Runnable task = new Runnable() {
+
+                        @Override
+                        public void run() {
+                            final OptionsMethod options = new OptionsMethod(webDav.getHost());
+                            try {
+                                webDav.getHttpClient().executeMethod(options);
+                                successes.incrementAndGet();
+                            } catch (final Exception ex) {
+                                options.abort();
+                                LOG.warn("cannot open connection to WebDAV " + webDav.getHost(), ex); // NOI18N
+                            } finally {
+                                opened.countDown();
+                                try {
+                                    opened.await(WARMUP_TIMEOUT, TimeUnit.MILLISECONDS);
+                                } catch (final InterruptedException ex) {
+                                    Thread.currentThread().interrupt();
+                                }
+                                options.releaseConnection();
+                            }
+                        }
+                    };
+
+                try {
+                    // a task must not run inline, it would wait for the tasks that are not submitted yet
+                    executor.execute(task, SearchExecutor.RejectionPolicy.ABORT);
+                } catch (final RejectedExecutionException ex) {
+                    LOG.warn("search executor is saturated, opening only " + i + " of " + count // NOI18N
+                                + " WebDAV connections");                                       // NOI18N
+                    for (int j = i; j < count; ++j) {
+                        opened.countDown();
+                    }
+
+                    break;
+                }
+            }
+
+            if (!opened.await(WARMUP_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                LOG.warn("WebDAV connections were not opened within " + WARMUP_TIMEOUT + " ms"); // NOI18N
+            }
+        } finally {
+            Metrics.getInstance().stop(METRICS_PREFIX + "warmup", start); // NOI18N
+        }
+
+        return successes.get();
+    }
+
+    /**
+     * Checks whether the given HTTP status of a deletion means that the file does not exist anymore. A missing file is
+     * gone already.
+     *
+     * @param   status  the HTTP status of the response
+     *
+     * @return  <code>true</code> if the status is a success or {@link HttpStatus#SC_NOT_FOUND}
+     */
+    public static boolean isGone(final int status) {
+        return (status == HttpStatus.SC_NOT_FOUND) || ((status >= 200) && (status < 300));
+    }
+}
@@ -0,0 +1,264 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.trigger;
+
+import org.apache.commons.httpclient.Credentials;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import java.util.Properties;
+
+/**
+ * Provides the server wide, thread-safe {@link HttpClient} that is used to access the time series WebDAV. The client
+ * authenticates preemptively so that no request has to go through the 401 challenge first. Idle connections are closed
+ * by a background thread so that a request after a quiet period does not run into a stale socket.<br/>
+ * <br/>
+ * The defaults are read from the <code>webdav.properties</code> resource next to this class. The keys of an external
+ * file given by the system property {@link #PROP_CONFIG} take precedence, and every single key can be overridden by a
+ * system property with the prefix {@link #PROP_PREFIX}, e.g. <code>
+ * de.cismet.cids.custom.sudplan.server.trigger.webdav.password</code>. The bundled resource contains no credentials,
+ * <code>user</code> and <code>password</code> have to be provided by the external file or by system properties.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class WebDavClient {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(WebDavClient.class);
+
+    static final String PROP_PREFIX = "de.cismet.cids.custom.sudplan.server.trigger.webdav."; // NOI18N
+    static final String PROP_CONFIG = PROP_PREFIX + "config";                                 // NOI18N
+
+    private static final String CONFIG_RESOURCE = "webdav.properties"; // NOI18N
+
+    private static final WebDavClient INSTANCE = new WebDavClient(loadConfig());
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final String host;
+    private final Credentials credentials;
+    private final MultiThreadedHttpConnectionManager connectionManager;
+    private final HttpClient client;
+    private final IdleConnectionTimeoutThread idleConnectionCloser;
+    private final int maxConnectionsPerHost;
+    private final int warmupConnections;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new WebDavClient object.
+     *
+     * @param  config  the configuration
+     */
+    private WebDavClient(final Properties config) {
+        this.host = config.getProperty("host");                                                   // NOI18N
+        this.credentials = new UsernamePasswordCredentials(
+                config.getProperty("user"),                                                       // NOI18N
+                config.getProperty("password"));                                                  // NOI18N
+
+        final HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+        this.maxConnectionsPerHost = getInt(config, "maxConnectionsPerHost", 20);                // NOI18N
+        params.setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+        params.setMaxTotalConnections(getInt(config, "maxTotalConnections", 40));                // NOI18N
+        params.setConnectionTimeout(getInt(config, "connectionTimeout", 10000));                 // NOI18N
+        params.setSoTimeout(getInt(config, "soTimeout", 60000));                                 // NOI18N
+        // the idle connection closer takes care of most stale connections, the check catches the rest
+        params.setStaleCheckingEnabled(true);
+        this.connectionManager = new MultiThreadedHttpConnectionManager();
+        this.connectionManager.setParams(params);
+
+        this.client = new HttpClient(connectionManager);
+        this.client.getParams().setAuthenticationPreemptive(true);
+        this.client.getParams()
+                .setConnectionManagerTimeout(getInt(config, "connectionManagerTimeout", 30000)); // NOI18N
+        this.client.getState().setCredentials(AuthScope.ANY, credentials);
+
+        this.idleConnectionCloser = new IdleConnectionTimeoutThread();
+        this.idleConnectionCloser.setName("ts-dav-idle-connection-closer");                      // NOI18N
+        this.idleConnectionCloser.setDaemon(true);
+        this.idleConnectionCloser.addConnectionManager(connectionManager);
+        this.idleConnectionCloser.setConnectionTimeout(getInt(config, "idleTimeout", 30000));    // NOI18N
+        this.idleConnectionCloser.setTimeoutInterval(getInt(config, "idleCheckInterval", 10000)); // NOI18N
+        this.idleConnectionCloser.start();
+        this.warmupConnections = Math.max(0, getInt(config, "warmupConnections", 0));            // NOI18N
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("WebDAV client for " + host + " created"); // NOI18N
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Provides the server wide WebDAV client.
+     *
+     * @return  the WebDAV client
+     */
+    static WebDavClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * The base url of the WebDAV, ending with a slash.
+     *
+     * @return  the base url of the WebDAV
+     */
+    String getHost() {
+        return host;
+    }
+
+    /**
+     * The credentials used to access the WebDAV.
+     *
+     * @return  the credentials
+     */
+    Credentials getCredentials() {
+        return credentials;
+    }
+
+    /**
+     * The maximum amount of connections the client holds to the WebDAV.
+     *
+     * @return  the maximum amount of connections per host
+     */
+    int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * The amount of connections that are opened when the {@link TimeSeriesDeletionTrigger} is created.
+     *
+     * @return  the amount of connections to open ahead of the first deletion, <code>0</code> to open none
+     */
+    int getWarmupConnections() {
+        return warmupConnections;
+    }
+
+    /**
+     * Provides the shared client. It is safe to use it from several threads at once, every request has to release its
+     * connection afterwards though.
+     *
+     * @return  the shared client
+     */
+    HttpClient getHttpClient() {
+        return client;
+    }
+
+    /**
+     * Reads the configuration: the bundled resource, the external file on top of it and system properties on top of
+     * both.
+     *
+     * @return  the configuration
+     *
+     * @throws  IllegalStateException  if the configuration cannot be read or does not contain the host or the
+     *                                 credentials
+     */
+    private static Properties loadConfig() {
+        final Properties config = new Properties();
+        load(config, WebDavClient.class.getResourceAsStream(CONFIG_RESOURCE), CONFIG_RESOURCE);
+
+        final String external = System.getProperty(PROP_CONFIG);
+        if (external != null) {
+            try {
+                load(config, new FileInputStream(external), external);
+            } catch (final IOException ex) {
+                final String message = "cannot read WebDAV configuration " + external; // NOI18N
+                LOG.error(message, ex);
+                throw new IllegalStateException(message, ex);
+            }
+        }
+
+        for (final String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(PROP_PREFIX) && !PROP_CONFIG.equals(name)) {
+                config.setProperty(name.substring(PROP_PREFIX.length()), System.getProperty(name));
+            }
+        }
+
+        final String host = config.getProperty("host");                                       // NOI18N
+        if ((host == null) || host.trim().isEmpty()) {
+            throw new IllegalStateException("WebDAV configuration does not contain a host");   // NOI18N
+        }
+        config.setProperty("host", host.trim().endsWith("/") ? host.trim() : (host.trim() + "/")); // NOI18N
+
+        for (final String key : new String[] { "user", "password" }) { // NOI18N
+            final String value = config.getProperty(key);
+            if ((value == null) || value.isEmpty()) {
+                final String message = "WebDAV " + key + " is not configured, set it in the file given by " // NOI18N
+                            + PROP_CONFIG + " or by the system property " + PROP_PREFIX + key;              // NOI18N
+                LOG.error(message);
+                throw new IllegalStateException(message);
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Loads the given source into the configuration, keys that are already set are replaced.
+     *
+     * @param   config  the configuration
+     * @param   is      the source or <code>null</code> if it does not exist
+     * @param   name    the name of the source
+     *
+     * @throws  IllegalStateException  if the source does not exist or cannot be read
+     */
+    private static void load(final Properties config, final InputStream is, final String name) {
+        if (is == null) {
+            final String message = "WebDAV configuration not found: " + name; // NOI18N
+            LOG.error(message);
+            throw new IllegalStateException(message);
+        }
+
+        try {
+            config.load(is);
+        } catch (final IOException ex) {
+            final String message = "cannot read WebDAV configuration " + name; // NOI18N
+            LOG.error(message, ex);
+            throw new IllegalStateException(message, ex);
+        } finally {
+            try {
+                is.close();
+            } catch (final IOException ex) {
+                LOG.warn("cannot close WebDAV configuration", ex);         // NOI18N
+            }
+        }
+    }
+
+    /**
+     * Reads an integer from the configuration.
+     *
+     * @param   config        the configuration
+     * @param   key           the key
+     * @param   defaultValue  the value if the key is missing or invalid
+     *
+     * @return  the integer
+     */
+    private static int getInt(final Properties config, final String key, final int defaultValue) {
+        final String value = config.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (final NumberFormatException ex) {
+                LOG.warn("illegal value of WebDAV configuration key " + key + ": " + value, ex); // NOI18N
+            }
+        }
+
+        return defaultValue;
+    }
+}
@@ -0,0 +1,555 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.trigger;
+
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import de.cismet.cids.custom.sudplan.commons.SudplanConcurrency;
+
+/**
+ * Durable queue of remote files that shall be deleted. Every enqueued uri is written to a journal file before it is
+ * handed to the worker threads, every finished uri is marked as done in the journal. Uris that are still pending when
+ * the server stops are read from the journal and deleted after the next start. Failed deletions are retried with an
+ * exponential backoff until the maximum amount of attempts is reached. The workers take up to <code>batchSize</code>
+ * due uris at once and record their completion with a single journal write.<br/>
+ * <br/>
+ * The journal is compacted by writing the pending uris to a temporary file that is forced to the disk and then moved
+ * over the journal atomically. If the file system cannot move atomically the old journal is kept as a backup until
+ * the move succeeded. A crash at any point of the compaction leaves either the old or the new journal, the next start
+ * recovers from the temporary or the backup file if the journal itself is missing.
+ *
+ * @version  $Revision$, $Date$
+ */
+final class WebDavDeletionQueue {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    /** LOGGER. */
+    private static final transient Logger LOG = Logger.getLogger(WebDavDeletionQueue.class);
+
+    private static final String ENCODING = "UTF-8"; // NOI18N
+    private static final char ADDED = '+';
+    private static final char DONE = '-';
+
+    /** the amount of done records after which the journal is rewritten with the pending uris only. */
+    private static final int COMPACTION_THRESHOLD = 1000;
+
+    //~ Instance fields --------------------------------------------------------
+
+    private final File journal;
+    private final Deleter deleter;
+    private final int maxAttempts;
+    private final long initialBackoff;
+    private final int batchSize;
+
+    private final DelayQueue<Task> tasks;
+    private final ExecutorService workers;
+
+    /** uri &rarr; amount of pending deletions, guarded by <code>this</code>. */
+    private final Map<String, Integer> pending;
+    private Writer journalWriter;
+    private FileOutputStream journalStream;
+    private int doneRecords;
+    private boolean closed;
+
+    //~ Constructors -----------------------------------------------------------
+
+    /**
+     * Creates a new WebDavDeletionQueue object and schedules the uris that are still pending according to the
+     * journal.
+     *
+     * @param   journal         the journal file, created if it does not exist
+     * @param   deleter         performs the actual deletion
+     * @param   workerCount     the amount of worker threads
+     * @param   maxAttempts     the maximum amount of attempts per uri
+     * @param   initialBackoff  the delay in milliseconds before the first retry, doubled with every further attempt
+     * @param   batchSize       the maximum amount of uris a worker takes at once
+     *
+     * @throws  IOException  if the journal cannot be read or written
+     */
+    WebDavDeletionQueue(final File journal,
+            final Deleter deleter,
+            final int workerCount,
+            final int maxAttempts,
+            final long initialBackoff,
+            final int batchSize) throws IOException {
+        this.journal = journal;
+        this.deleter = deleter;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = Math.max(0, initialBackoff);
+        this.batchSize = Math.max(1, batchSize);
+        this.tasks = new DelayQueue<Task>();
+        this.pending = new LinkedHashMap<String, Integer>();
+
+        final File dir = journal.getAbsoluteFile().getParentFile();
+        if ((dir != null) && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create the directory of the deletion journal " + journal); // NOI18N
+        }
+
+        recover();
+        replay();
+        compact();
+
+        this.workers = Executors.newFixedThreadPool(
+                Math.max(1, workerCount),
+                SudplanConcurrency.createThreadFactory("ts-dav-deletion")); // NOI18N
+        for (int i = 0; i < Math.max(1, workerCount); ++i) {
+            workers.execute(new Worker());
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("WebDAV deletion queue started with journal " + journal + ", pending deletions: " // NOI18N
+                        + tasks.size());
+        }
+    }
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Durably enqueues the given uris for deletion.
+     *
+     * @param   uris  the uris of the remote files
+     *
+     * @throws  IOException  if the uris cannot be written to the journal, nothing is enqueued then
+     */
+    void enqueue(final Collection<String> uris) throws IOException {
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("deletion queue is shut down, journal: " + journal); // NOI18N
+            }
+
+            for (final String uri : uris) {
+                journalWriter.write(ADDED);
+                journalWriter.write(uri);
+                journalWriter.write('\n');
+            }
+            sync();
+
+            for (final String uri : uris) {
+                final Integer count = pending.get(uri);
+                pending.put(uri, (count == null) ? 1 : (count + 1));
+            }
+        }
+
+        for (final String uri : uris) {
+            tasks.put(new Task(uri, 0, 0));
+        }
+    }
+
+    /**
+     * The amount of uris waiting for deletion, including uris waiting for a retry.
+     *
+     * @return  the amount of pending uris
+     */
+    int getPendingCount() {
+        return tasks.size();
+    }
+
+    /**
+     * Stops the workers and closes the journal. Deletions in progress are interrupted, pending uris stay in the
+     * journal and are processed after the next start. Subsequent calls have no effect.
+     */
+    void shutdown() {
+        workers.shutdownNow();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            try {
+                journalWriter.close();
+            } catch (final IOException e) {
+                LOG.warn("cannot close deletion journal " + journal, e); // NOI18N
+            }
+        }
+
+        if (LOG.isInfoEnabled()) {
+            LOG.info("WebDAV deletion queue stopped, pending deletions: " + tasks.size()); // NOI18N
+        }
+    }
+
+    /**
+     * Marks the given uris as done in the journal.
+     *
+     * @param  uris  the finished uris
+     */
+    private void markDone(final List<String> uris) {
+        synchronized (this) {
+            if (closed) {
+                // the uris will be deleted again after a restart which is harmless
+                return;
+            }
+
+            try {
+                for (final String uri : uris) {
+                    journalWriter.write(DONE);
+                    journalWriter.write(uri);
+                    journalWriter.write('\n');
+                }
+                sync();
+            } catch (final IOException e) {
+                // the uris will be deleted again after a restart which is harmless
+                LOG.warn("cannot mark deletions as done in journal " + journal, e); // NOI18N
+            }
+
+            for (final String uri : uris) {
+                final Integer count = pending.get(uri);
+                if ((count == null) || (count <= 1)) {
+                    pending.remove(uri);
+                } else {
+                    pending.put(uri, count - 1);
+                }
+            }
+
+            doneRecords += uris.size();
+            if (doneRecords >= COMPACTION_THRESHOLD) {
+                try {
+                    compact();
+                } catch (final IOException e) {
+                    LOG.warn("cannot compact deletion journal " + journal, e); // NOI18N
+                }
+            }
+        }
+    }
+
+    /**
+     * Flushes the journal and forces it to the disk.
+     *
+     * @throws  IOException  if the journal cannot be written
+     */
+    private void sync() throws IOException {
+        journalWriter.flush();
+        journalStream.getChannel().force(false);
+    }
+
+    /**
+     * Reads the journal and schedules every uri that was added but not done.
+     *
+     * @throws  IOException  if the journal cannot be read
+     */
+    private void replay() throws IOException {
+        if (!journal.exists()) {
+            return;
+        }
+
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(journal),
+                    ENCODING));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 1) {
+                    final String uri = line.substring(1);
+                    final Integer count = pending.get(uri);
+                    if (ADDED == line.charAt(0)) {
+                        pending.put(uri, (count == null) ? 1 : (count + 1));
+                    } else if ((DONE == line.charAt(0)) && (count != null)) {
+                        if (count <= 1) {
+                            pending.remove(uri);
+                        } else {
+                            pending.put(uri, count - 1);
+                        }
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        for (final Map.Entry<String, Integer> entry : pending.entrySet()) {
+            for (int i = 0; i < entry.getValue(); ++i) {
+                tasks.put(new Task(entry.getKey(), 0, 0));
+            }
+        }
+    }
+
+    /**
+     * Restores the journal from the files a compaction that was interrupted by a crash left behind. The temporary file
+     * is complete once the backup exists or the journal is missing, as it is forced to the disk before the journal is
+     * touched. If the journal exists, the compaction did not replace it yet or already finished, so the leftovers are
+     * discarded.
+     *
+     * @throws  IOException  if the journal cannot be restored
+     */
+    private void recover() throws IOException {
+        final File tmp = tmpFile();
+        final File backup = backupFile();
+        if (!journal.exists()) {
+            if (tmp.exists()) {
+                LOG.warn("restoring deletion journal " + journal + " from " + tmp);    // NOI18N
+                move(tmp, journal);
+            } else if (backup.exists()) {
+                LOG.warn("restoring deletion journal " + journal + " from " + backup); // NOI18N
+                move(backup, journal);
+            }
+        }
+
+        if (tmp.exists() && !tmp.delete()) {
+            LOG.warn("cannot delete leftover " + tmp);    // NOI18N
+        }
+        if (backup.exists() && !backup.delete()) {
+            LOG.warn("cannot delete leftover " + backup); // NOI18N
+        }
+    }
+
+    /**
+     * Rewrites the journal so that it only contains the pending uris and (re)opens it for appending. Must be called
+     * while holding the lock of this queue. If the journal cannot be replaced the current journal stays in use.
+     *
+     * @throws  IOException  if the journal cannot be written
+     */
+    private void compact() throws IOException {
+        final File tmp = tmpFile();
+        final FileOutputStream tmpStream = new FileOutputStream(tmp);
+        try {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(tmpStream, ENCODING));
+            for (final Map.Entry<String, Integer> entry : pending.entrySet()) {
+                for (int i = 0; i < entry.getValue(); ++i) {
+                    writer.write(ADDED);
+                    writer.write(entry.getKey());
+                    writer.write('\n');
+                }
+            }
+            writer.flush();
+            // the journal is only replaced by a file that is on the disk
+            tmpStream.getFD().sync();
+        } finally {
+            tmpStream.close();
+        }
+
+        if (journalWriter != null) {
+            journalWriter.close();
+            journalWriter = null;
+        }
+
+        try {
+            replace(tmp);
+        } finally {
+            // append to the new journal or, if it could not be replaced, keep appending to the old one
+            journalStream = new FileOutputStream(journal, true);
+            journalWriter = new BufferedWriter(new OutputStreamWriter(journalStream, ENCODING));
+        }
+
+        doneRecords = 0;
+    }
+
+    /**
+     * Replaces the journal with the given file. The file is moved atomically if the file system supports it, otherwise
+     * the journal is moved to a backup first and only deleted once the file took its place.
+     *
+     * @param   tmp  the new journal
+     *
+     * @throws  IOException  if the journal cannot be replaced
+     */
+    private void replace(final File tmp) throws IOException {
+        if (!journal.exists()) {
+            move(tmp, journal);
+
+            return;
+        }
+
+        try {
+            Files.move(
+                tmp.toPath(),
+                journal.toPath(),
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (final AtomicMoveNotSupportedException e) {
+            final File backup = backupFile();
+            move(journal, backup);
+            try {
+                move(tmp, journal);
+            } catch (final IOException ex) {
+                move(backup, journal);
+
+                throw ex;
+            }
+            if (!backup.delete()) {
+                LOG.warn("cannot delete " + backup); // NOI18N
+            }
+        }
+    }
+
+    /**
+     * Moves the given file to the given target that must not exist.
+     *
+     * @param   source  the file to move
+     * @param   target  the new location
+     *
+     * @throws  IOException  if the file cannot be moved
+     */
+    private static void move(final File source, final File target) throws IOException {
+        Files.move(source.toPath(), target.toPath());
+    }
+
+    /**
+     * The file the pending uris are written to during a compaction.
+     *
+     * @return  the temporary file
+     */
+    private File tmpFile() {
+        return new File(journal.getPath() + ".tmp"); // NOI18N
+    }
+
+    /**
+     * The file the journal is kept as during a compaction if it cannot be replaced atomically.
+     *
+     * @return  the backup file
+     */
+    private File backupFile() {
+        return new File(journal.getPath() + ".bak"); // NOI18N
+    }
+
+    //~ Inner Interfaces -------------------------------------------------------
+
+    /**
+     * Performs the deletion of a single remote file.
+     *
+     * @version  $Revision$, $Date$
+     */
+    interface Deleter {
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * Deletes the remote file. A file that does not exist (anymore) must be treated as deleted.
+         *
+         * @param   uri  the uri of the remote file
+         *
+         * @throws  Exception  if the file could not be deleted, the deletion is retried then
+         */
+        void delete(String uri) throws Exception;
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * A uri waiting for (another attempt of) its deletion.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class Task implements Delayed {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final String uri;
+        private final int attempts;
+        private final long due;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new Task object.
+         *
+         * @param  uri       the uri to delete
+         * @param  attempts  the amount of failed attempts so far
+         * @param  delay     the delay in milliseconds before the task is due
+         */
+        Task(final String uri, final int attempts, final long delay) {
+            this.uri = uri;
+            this.attempts = attempts;
+            this.due = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public long getDelay(final TimeUnit unit) {
+            return unit.convert(due - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(final Delayed o) {
+            final long diff = getDelay(TimeUnit.NANOSECONDS) - o.getDelay(TimeUnit.NANOSECONDS);
+
+            return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+        }
+    }
+
+    /**
+     * Takes due uris from the queue and deletes them.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private final class Worker implements Runnable {
+
+        //~ Methods ------------------------------------------------------------
+
+        @Override
+        public void run() {
+            final List<Task> batch = new ArrayList<Task>(batchSize);
+            final List<String> done = new ArrayList<String>(batchSize);
+            while (!Thread.currentThread().isInterrupted()) {
+                try {
+                    batch.add(tasks.take());
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+
+                    break;
+                }
+                // only due tasks are drained
+                tasks.drainTo(batch, batchSize - 1);
+
+                for (final Task task : batch) {
+                    try {
+                        deleter.delete(task.uri);
+                        done.add(task.uri);
+                    } catch (final Throwable e) {
+                        // not even an Error may end the worker, it would silently reduce the throughput
+                        final int attempts = task.attempts + 1;
+                        if (attempts < maxAttempts) {
+                            final long backoff = initialBackoff << Math.min(attempts - 1, 20);
+                            LOG.warn("deletion of " + task.uri + " failed (attempt " + attempts // NOI18N
+                                        + "), retrying in " + backoff + " ms",               // NOI18N
+                                e);
+                            tasks.put(new Task(task.uri, attempts, backoff));
+                        } else {
+                            LOG.error("giving up deletion of " + task.uri + " after " + attempts // NOI18N
+                                        + " attempts",                                           // NOI18N
+                                e);
+                            done.add(task.uri);
+                        }
+                    }
+                }
+
+                if (!done.isEmpty()) {
+                    markDone(done);
+                }
+
+                batch.clear();
+                done.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,459 @@
+/***************************************************
+*
+* cismet GmbH, Saarbruecken, Germany
+*
+*              ... and it just works.
+*
+****************************************************/
+package de.cismet.cids.custom.sudplan.server.search;
+
+import Sirius.server.middleware.interfaces.domainserver.MetaService;
+import Sirius.server.middleware.types.MetaClass;
+import Sirius.server.middleware.types.MetaObject;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import java.rmi.RemoteException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Proves that the chunked bulk load of the {@link MetaObjectLoader} delivers the same objects in the same order as
+ * the per id <code>getMetaObject(User, int, int)</code> loop it replaced, for every chunk layout and when the bulk
+ * calls fail or deliver only some of the objects.
+ *
+ * @version  $Revision$, $Date$
+ */
+public class MetaObjectLoaderTest {
+
+    //~ Static fields/initializers ---------------------------------------------
+
+    private static final Pattern IN_LIST = Pattern.compile("IN \\(([-\\d,]*)\\)"); // NOI18N
+
+    //~ Instance fields --------------------------------------------------------
+
+    private MetaClass metaClass;
+    private StubMetaService stub;
+    private MetaService ms;
+
+    //~ Methods ----------------------------------------------------------------
+
+    /**
+     * Creates the class and the <code>MetaService</code> of the tests.
+     */
+    @Before
+    public void setUp() {
+        metaClass = metaClass(7, "run"); // NOI18N
+        stub = new StubMetaService(metaClass);
+        ms = (MetaService)Proxy.newProxyInstance(
+                getClass().getClassLoader(),
+                new Class[] { MetaService.class },
+                stub);
+    }
+
+    /**
+     * The bulk load delivers exactly the objects of the per id loop, including ids that occur twice and ids in
+     * descending order.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testLoadEqualsPerIdLoop() throws Exception {
+        final int[] ids = new int[250];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = 1000 - (3 * i);
+        }
+        ids[17] = ids[3];
+
+        final List<MetaObject> expected = loadPerId(ids, 0, ids.length);
+        stub.reset();
+        final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids);
+
+        assertSameObjects(expected, actual);
+        assertEquals("bulk calls", 3, stub.bulkCalls);
+        assertEquals("single calls", 0, stub.singleCalls);
+    }
+
+    /**
+     * The ids are split into chunks of at most the chunk size, exact multiples of the chunk size do not cause an empty
+     * chunk and every id is requested exactly once.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testChunkBoundaries() throws Exception {
+        final int[] ids = sequence(1, 100);
+
+        final int[][] layouts = {
+                { 1, 100 },
+                { 50, 2 },
+                { 99, 2 },
+                { 100, 1 },
+                { 101, 1 },
+                { 1000, 1 }
+            };
+        for (final int[] layout : layouts) {
+            stub.reset();
+            final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids, 0, ids.length, layout[0]);
+
+            assertSameObjects(loadPerId(ids, 0, ids.length), actual);
+            assertEquals("bulk calls for chunk size " + layout[0], layout[1], stub.bulkCalls);
+            assertTrue("chunk size " + layout[0] + " exceeded", stub.maxChunk <= layout[0]);
+            assertEquals("requested ids for chunk size " + layout[0], ids.length, stub.requested.size());
+        }
+    }
+
+    /**
+     * Only the ids of the given range are loaded, an empty range loads nothing.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testRange() throws Exception {
+        final int[] ids = sequence(1, 30);
+
+        final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids, 10, 25, 4);
+        assertSameObjects(loadPerId(ids, 10, 25), actual);
+        assertEquals("bulk calls", 4, stub.bulkCalls);
+
+        stub.reset();
+        assertTrue(MetaObjectLoader.load(ms, null, metaClass, ids, 5, 5, 4).isEmpty());
+        assertEquals("bulk calls of an empty range", 0, stub.bulkCalls);
+    }
+
+    /**
+     * If a bulk call fails every id of its chunk is loaded individually, the other chunks are not affected.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testFallbackOnFailingBulkCall() throws Exception {
+        final int[] ids = sequence(1, 25);
+        stub.failingChunk = 1;
+
+        final List<MetaObject> expected = loadPerId(ids, 0, ids.length);
+        stub.reset();
+        final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids, 0, ids.length, 10);
+
+        assertSameObjects(expected, actual);
+        assertEquals("bulk calls", 3, stub.bulkCalls);
+        assertEquals("single calls of the failed chunk", 10, stub.singleCalls);
+    }
+
+    /**
+     * Ids the bulk call does not deliver, e.g. because the objects are not readable through the query, are loaded
+     * individually and keep their position.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testFallbackOnIncompleteBulkCall() throws Exception {
+        final int[] ids = sequence(1, 20);
+        stub.omitted.add(4);
+        stub.omitted.add(11);
+        stub.omitted.add(20);
+
+        final List<MetaObject> expected = loadPerId(ids, 0, ids.length);
+        stub.reset();
+        final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids, 0, ids.length, 8);
+
+        assertSameObjects(expected, actual);
+        assertEquals("single calls of the omitted ids", 3, stub.singleCalls);
+    }
+
+    /**
+     * An id that cannot be loaded individually either delivers what the per id call delivers, i.e.
+     * <code>null</code>, at its position.
+     *
+     * @throws  Exception  if the load fails
+     */
+    @Test
+    public void testMissingObject() throws Exception {
+        final int[] ids = sequence(1, 5);
+        stub.missing.add(3);
+
+        final List<MetaObject> actual = MetaObjectLoader.load(ms, null, metaClass, ids, 0, ids.length, 2);
+
+        assertEquals(5, actual.size());
+        assertNull(actual.get(2));
+        assertSameObjects(loadPerId(ids, 0, ids.length), actual);
+    }
+
+    /**
+     * A chunk size below 1 is rejected.
+     *
+     * @throws  Exception  if the load fails otherwise
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalChunkSize() throws Exception {
+        MetaObjectLoader.load(ms, null, metaClass, sequence(1, 5), 0, 5, 0);
+    }
+
+    /**
+     * A range outside of the ids is rejected.
+     *
+     * @throws  Exception  if the load fails otherwise
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testIllegalRange() throws Exception {
+        MetaObjectLoader.load(ms, null, metaClass, sequence(1, 5), 2, 6, 10);
+    }
+
+    /**
+     * Loads the objects the way the searches did before the bulk load was introduced.
+     *
+     * @param   ids   the ids
+     * @param   from  the index of the first id to load (inclusive)
+     * @param   to    the index of the last id to load (exclusive)
+     *
+     * @return  the objects in the order of the ids
+     *
+     * @throws  RemoteException  if an object cannot be loaded
+     */
+    private List<MetaObject> loadPerId(final int[] ids, final int from, final int to) throws RemoteException {
+        final List<MetaObject> result = new ArrayList<MetaObject>(to - from);
+        for (int i = from; i < to; ++i) {
+            result.add(ms.getMetaObject(null, ids[i], metaClass.getID()));
+        }
+
+        return result;
+    }
+
+    /**
+     * Asserts that both lists hold the same instances in the same order.
+     *
+     * @param  expected  the expected objects
+     * @param  actual    the actual objects
+     */
+    private static void assertSameObjects(final List<MetaObject> expected, final List<MetaObject> actual) {
+        assertEquals("size", expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertSame("object at " + i, expected.get(i), actual.get(i));
+        }
+    }
+
+    /**
+     * Creates the ids <code>first</code> to <code>last</code>.
+     *
+     * @param   first  the first id
+     * @param   last   the last id (inclusive)
+     *
+     * @return  the ids
+     */
+    private static int[] sequence(final int first, final int last) {
+        final int[] ids = new int[last - first + 1];
+        for (int i = 0; i < ids.length; ++i) {
+            ids[i] = first + i;
+        }
+
+        return ids;
+    }
+
+    /**
+     * Creates a class of the given table from a class description, the way a domain server does.
+     *
+     * @param   id         the class id
+     * @param   tableName  the table name
+     *
+     * @return  the class
+     */
+    private static MetaClass metaClass(final int id, final String tableName) {
+        return new MetaClass(new Sirius.server.localserver._class.Class(
+                    id,
+                    tableName,
+                    null,
+                    null,
+                    null,
+                    tableName,
+                    "id", // NOI18N
+                    null,
+                    null,
+                    null,
+                    false),
+                "SUDPLAN"); // NOI18N
+    }
+
+    //~ Inner Classes ----------------------------------------------------------
+
+    /**
+     * An in-memory <code>MetaService</code> that delivers a single instance per object id, so that the objects of the
+     * bulk calls and of the single calls can be compared by identity. It counts the calls and can fail a bulk call,
+     * omit objects from the bulk calls or not know an object at all.
+     *
+     * @version  $Revision$, $Date$
+     */
+    private static final class StubMetaService implements InvocationHandler {
+
+        //~ Instance fields ----------------------------------------------------
+
+        private final MetaClass metaClass;
+        private final Map<Integer, MetaObject> objects;
+        private final Set<Integer> omitted;
+        private final Set<Integer> missing;
+        private final Set<Integer> requested;
+        private int failingChunk;
+        private int bulkCalls;
+        private int singleCalls;
+        private int maxChunk;
+
+        //~ Constructors -------------------------------------------------------
+
+        /**
+         * Creates a new StubMetaService object.
+         *
+         * @param  metaClass  the class of all objects
+         */
+        StubMetaService(final MetaClass metaClass) {
+            this.metaClass = metaClass;
+            this.objects = new HashMap<Integer, MetaObject>();
+            this.omitted = new HashSet<Integer>();
+            this.missing = new HashSet<Integer>();
+            this.requested = new HashSet<Integer>();
+            this.failingChunk = -1;
+        }
+
+        //~ Methods ------------------------------------------------------------
+
+        /**
+         * Resets the counters.
+         */
+        void reset() {
+            requested.clear();
+            bulkCalls = 0;
+            singleCalls = 0;
+            maxChunk = 0;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+            if ("getMetaObject".equals(name) && (args.length == 3)) { // NOI18N
+                ++singleCalls;
+                assertEquals("class id", metaClass.getID(), ((Integer)args[2]).intValue());
+
+                return object((Integer)args[1]);
+            } else if ("getMetaObject".equals(name) && (args.length == 2)) { // NOI18N
+                return bulk((String)args[1]);
+            } else if ("hashCode".equals(name)) { // NOI18N
+                return System.identityHashCode(proxy);
+            } else if ("equals".equals(name)) { // NOI18N
+                return proxy == args[0];
+            } else if ("toString".equals(name)) { // NOI18N
+                return "StubMetaService"; // NOI18N
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+        }
+
+        /**
+         * Answers a bulk call of the loader.
+         *
+         * @param   query  the <code>classid, objectid</code> query
+         *
+         * @return  the objects of the IN-list in reverse order, the database does not guarantee any order
+         *
+         * @throws  RemoteException  if the call is configured to fail
+         */
+        private MetaObject[] bulk(final String query) throws RemoteException {
+            assertTrue(
+                "query " + query,
+                query.startsWith("SELECT " + metaClass.getID() + ", id FROM " + metaClass.getTableName())); // NOI18N
+            final int chunk = bulkCalls++;
+            final Matcher m = IN_LIST.matcher(query);
+            assertTrue("IN-list in " + query, m.find());
+
+            final String[] values = m.group(1).split(","); // NOI18N
+            maxChunk = Math.max(maxChunk, values.length);
+            if (chunk == failingChunk) {
+                throw new RemoteException("bulk call " + chunk + " fails"); // NOI18N
+            }
+
+            final List<MetaObject> result = new ArrayList<MetaObject>(values.length);
+            for (int i = values.length - 1; i >= 0; --i) {
+                final int id = Integer.parseInt(values[i]);
+                requested.add(id);
+                if (!omitted.contains(id)) {
+                    final MetaObject mo = object(id);
+                    if (mo != null) {
+                        result.add(mo);
+                    }
+                }
+            }
+
+            return result.toArray(new MetaObject[result.size()]);
+        }
+
+        /**
+         * Provides the single instance of the object of the given id.
+         *
+         * @param   id  the object id
+         *
+         * @return  the object or <code>null</code> if the object is configured to be missing
+         */
+        private MetaObject object(final int id) {
+            if (missing.contains(id)) {
+                return null;
+            }
+
+            MetaObject mo = objects.get(id);
+            if (mo == null) {
+                mo = metaObject(id);
+                objects.put(id, mo);
+            }
+
+            return mo;
+        }
+
+        /**
+         * Creates an object of the class of this service.
+         *
+         * @param   id  the object id
+         *
+         * @return  the object
+         */
+        private MetaObject metaObject(final int id) {
+            return (MetaObject)Proxy.newProxyInstance(
+                    MetaObjectLoaderTest.class.getClassLoader(),
+                    new Class[] { MetaObject.class },
+                    new InvocationHandler() {
+
+                        @Override
+                        public Object invoke(final Object proxy, final Method method, final Object[] args) {
+                            final String name = method.getName();
+                            if ("getID".equals(name)) {             // NOI18N
+                                return id;
+                            } else if ("getClassID".equals(name)) { // NOI18N
+                                return metaClass.getID();
+                            } else if ("getMetaClass".equals(name)) { // NOI18N
+                                return metaClass;
+                            } else if ("hashCode".equals(name)) {   // NOI18N
+                                return id;
+                            } else if ("equals".equals(name)) {     // NOI18N
+                                return proxy == args[0];
+                            } else if ("toString".equals(name)) {   // NOI18N
+                                return metaClass.getTableName() + ":" + id; // NOI18N
+                            } else {
+                                throw new UnsupportedOperationException(name);
+                            }
+                        }
+                    });
+        }
+    }
+}